@@ -0,0 +1,78 @@
+package main.java.bench;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import main.java.datatype.IntArrayNTree;
+import main.java.datatype.LongArrayNTree;
+
+/**
+ * Lookups in the primitive trees with wide nodes, where most of the time
+ * goes to the search among the children of each node. The search uses the
+ * Vector API only if the benchmark JVMs load it, so compare
+ *
+ *   java -jar target/benchmarks.jar IntNTreeBenchmark
+ *   java -jar target/benchmarks.jar IntNTreeBenchmark -jvmArgsAppend "--add-modules=jdk.incubator.vector"
+ *
+ * The tree holds the even numbers 0, 2, .., 2(size-1), built at once, and
+ * is probed in random order.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IntNTreeBenchmark {
+
+	@Param({ "100000" })
+	public int size;
+
+	@Param({ "16", "64", "128", "256" })
+	public int capacity;
+
+	private int[] keys;
+	private IntArrayNTree intTree;
+	private LongArrayNTree longTree;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		keys = new int[size];
+		long[] longKeys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = 2 * i;
+			longKeys[i] = 2 * i;
+		}
+
+		intTree = IntArrayNTree.bulkLoad(keys, capacity, 1, false);
+		longTree = LongArrayNTree.bulkLoad(longKeys, capacity, 1, false);
+
+		Random random = new Random(42);
+		for (int i = size - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int key = keys[i];
+			keys[i] = keys[j];
+			keys[j] = key;
+		}
+		next = 0;
+	}
+
+	private int nextKey() {
+		int i = next;
+		next = i + 1 == size ? 0 : i + 1;
+		return keys[i];
+	}
+
+	@Benchmark
+	public boolean containsInt() {
+		return intTree.contains(nextKey());
+	}
+
+	@Benchmark
+	public boolean containsLong() {
+		return longTree.contains(nextKey());
+	}
+}
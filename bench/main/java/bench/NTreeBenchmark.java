@@ -0,0 +1,66 @@
+package main.java.bench;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Param;
+
+import main.java.datatype.ArrayNTree;
+
+/**
+ * The benchmarks of SortedSetBenchmark on an ArrayNTree, for each capacity;
+ * TreeSetBenchmark runs them on the TreeSet baseline.
+ *
+ * Allocation rates are reported with the gc profiler; ArrayNTree reuses the
+ * nodes of deleted elements, so insertDelete and deleteInsert should
+ * allocate close to nothing per operation, eg
+ *
+ *   java -jar target/benchmarks.jar NTreeBenchmark.insertDelete -p size=100000 -prof gc
+ *
+ * and cache misses per lookup with the perfnorm profiler (needs Linux perf),
+ * eg for capacities around ArrayNTree.CACHE_LINE_CAPACITY
+ *
+ *   java -jar target/benchmarks.jar NTreeBenchmark.containsPresent -p capacity=4,12,64 -prof perfnorm
+ */
+public class NTreeBenchmark extends SortedSetBenchmark {
+
+	@Param({ "4", "12", "16", "64" })
+	public int capacity;
+
+	protected Target newTarget() {
+		ArrayNTree<Integer> arrayNTree = new ArrayNTree<>(capacity);
+		return new Target() {
+			public void insert(Integer elem) {
+				arrayNTree.insert(elem);
+			}
+
+			public void delete(Integer elem) {
+				arrayNTree.delete(elem);
+			}
+
+			public boolean contains(Integer elem) {
+				return arrayNTree.contains(elem);
+			}
+
+			public List<Integer> toList() {
+				return arrayNTree.toList();
+			}
+
+			public Iterable<Integer> elements() {
+				return arrayNTree;
+			}
+
+			public Stream<Integer> stream(boolean parallel) {
+				return parallel ? arrayNTree.parallelStream()
+						: arrayNTree.stream();
+			}
+
+			public Object load(List<Integer> elems, boolean parallel) {
+				return parallel ? ArrayNTree.parallelBulkLoad(elems, capacity,
+						1, false) : ArrayNTree.bulkLoad(elems, capacity, 1,
+						false);
+			}
+		};
+	}
+
+}
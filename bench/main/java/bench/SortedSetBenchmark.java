@@ -0,0 +1,201 @@
+package main.java.bench;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The benchmarks shared by NTreeBenchmark and TreeSetBenchmark, so that both
+ * implementations run the very same code and only the tree has its own
+ * parameters, as the capacity of ArrayNTree.
+ *
+ * The tree holds the even numbers 0, 2, .., 2(size-1), so odd numbers are
+ * never in it. The distribution sets the order in which those keys are
+ * inserted, both into the tree probed by the benchmarks and by build, and
+ * the order in which they are probed, so it also sets the shape of the
+ * tree. Only bulkLoad and parallelBulkLoad build a tree at once.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public abstract class SortedSetBenchmark {
+
+	public enum Distribution {
+		SEQUENTIAL, REVERSE, RANDOM, CLUSTERED
+	}
+
+	// runs of consecutive keys in the clustered distribution
+	private static final int CLUSTER = 64;
+
+	@Param({ "1000", "10000", "100000", "1000000", "10000000" })
+	public int size;
+
+	@Param({ "SEQUENTIAL", "REVERSE", "RANDOM", "CLUSTERED" })
+	public Distribution distribution;
+
+	private Integer[] keys;
+	private Integer[] absent;
+	private Target tree;
+	private int next;
+
+	/**
+	 * The operations being measured
+	 */
+	protected interface Target {
+		void insert(Integer elem);
+
+		void delete(Integer elem);
+
+		boolean contains(Integer elem);
+
+		List<Integer> toList();
+
+		Iterable<Integer> elements();
+
+		Stream<Integer> stream(boolean parallel);
+
+		// a new tree with the given elements, built at once
+		Object load(List<Integer> elems, boolean parallel);
+	}
+
+	/**
+	 * @return a new empty tree
+	 */
+	protected abstract Target newTarget();
+
+	// a new tree with all the keys, inserted one at a time in the order
+	// given by the distribution
+	private Target insertKeys() {
+		Target target = newTarget();
+		for (Integer elem : keys)
+			target.insert(elem);
+		return target;
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		keys = new Integer[size];
+		absent = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = 2 * i;
+			absent[i] = 2 * i + 1;
+		}
+		order(keys, new Random(42));
+		order(absent, new Random(43));
+
+		tree = insertKeys();
+		next = 0;
+	}
+
+	private void order(Integer[] array, Random random) {
+		List<Integer> list = Arrays.asList(array);
+
+		switch (distribution) {
+		case SEQUENTIAL:
+			break;
+		case REVERSE:
+			Collections.reverse(list);
+			break;
+		case RANDOM:
+			Collections.shuffle(list, random);
+			break;
+		case CLUSTERED:
+			List<List<Integer>> clusters = new ArrayList<>();
+			for (int i = 0; i < array.length; i += CLUSTER)
+				clusters.add(new ArrayList<>(
+						list.subList(i, Math.min(i + CLUSTER, array.length))));
+			Collections.shuffle(clusters, random);
+			int pos = 0;
+			for (List<Integer> cluster : clusters)
+				for (Integer elem : cluster)
+					array[pos++] = elem;
+			break;
+		}
+	}
+
+	private int nextIndex() {
+		int i = next;
+		next = i + 1 == size ? 0 : i + 1;
+		return i;
+	}
+
+	@Benchmark
+	public boolean containsPresent() {
+		return tree.contains(keys[nextIndex()]);
+	}
+
+	@Benchmark
+	public boolean containsAbsent() {
+		return tree.contains(absent[nextIndex()]);
+	}
+
+	// inserting and deleting the same element keeps the tree's size stable
+	@Benchmark
+	public void insertDelete() {
+		Integer elem = absent[nextIndex()];
+		tree.insert(elem);
+		tree.delete(elem);
+	}
+
+	@Benchmark
+	public void deleteInsert() {
+		Integer elem = keys[nextIndex()];
+		tree.delete(elem);
+		tree.insert(elem);
+	}
+
+	@Benchmark
+	public List<Integer> toList() {
+		return tree.toList();
+	}
+
+	@Benchmark
+	public void iterate(Blackhole bh) {
+		for (Integer elem : tree.elements())
+			bh.consume(elem);
+	}
+
+	@Benchmark
+	public long streamSum() {
+		return tree.stream(false).mapToLong(Integer::longValue).sum();
+	}
+
+	@Benchmark
+	public long parallelStreamSum() {
+		return tree.stream(true).mapToLong(Integer::longValue).sum();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public Object bulkLoad() {
+		return tree.load(Arrays.asList(keys), false);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public Object parallelBulkLoad() {
+		return tree.load(Arrays.asList(keys), true);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public Object build() {
+		return insertKeys();
+	}
+
+}
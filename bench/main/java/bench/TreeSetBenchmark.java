@@ -0,0 +1,48 @@
+package main.java.bench;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * The benchmarks of SortedSetBenchmark on a TreeSet, the baseline of
+ * NTreeBenchmark. It has no capacity, so it is measured once per size and
+ * distribution, eg
+ *
+ *   java -jar target/benchmarks.jar "(NTree|TreeSet)Benchmark.containsPresent" -p size=100000
+ */
+public class TreeSetBenchmark extends SortedSetBenchmark {
+
+	protected Target newTarget() {
+		TreeSet<Integer> set = new TreeSet<>();
+		return new Target() {
+			public void insert(Integer elem) {
+				set.add(elem);
+			}
+
+			public void delete(Integer elem) {
+				set.remove(elem);
+			}
+
+			public boolean contains(Integer elem) {
+				return set.contains(elem);
+			}
+
+			public List<Integer> toList() {
+				return new ArrayList<>(set);
+			}
+
+			public Iterable<Integer> elements() {
+				return set;
+			}
+
+			public Stream<Integer> stream(boolean parallel) {
+				return parallel ? set.parallelStream() : set.stream();
+			}
+
+			public Object load(List<Integer> elems, boolean parallel) {
+				return new TreeSet<>(elems);
+			}
+		};
+	}
+
+}
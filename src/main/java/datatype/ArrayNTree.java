@@ -1,6 +1,16 @@
 package main.java.datatype;
 
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
 import java.lang.reflect.Array;
 
 /**
@@ -11,13 +21,91 @@ import java.lang.reflect.Array;
  * @author Gonçalo Lobo
  * 
  */
-public class ArrayNTree<T extends Comparable<T>> implements NTree<T> {
+public class ArrayNTree<T> implements NTree<T> {
+
+	/**
+	 * The default number of elements below which the parallel operations
+	 * work sequentially
+	 */
+	public static final int DEFAULT_SEQUENTIAL_THRESHOLD = 1 << 13;
+
+	/**
+	 * A capacity whose array of child keys fits in a 64-byte cache line: 12
+	 * references of 4 bytes, as with compressed references, after the
+	 * 16-byte array header
+	 */
+	public static final int CACHE_LINE_CAPACITY = 12;
+
+	// the elements' natural ordering, for trees created without comparator
+	@SuppressWarnings("unchecked")
+	private static final Comparator<Object> NATURAL = (a, b) -> ((Comparable<Object>) a)
+			.compareTo(b);
+
+	// the most removed nodes a tree keeps for reuse
+	private static final int MAX_FREE_NODES = 1024;
+
+	// the binary format of writeTo
+	private static final int STREAM_MAGIC = 0x4E545242;
+	private static final int STREAM_VERSION = 1;
+
+	// the state of the whole tree, kept once and shared by every node: its
+	// ordering, its count of changes and its removed nodes
+	private final Shared<T> shared;
 
 	private T data;
 	private ArrayNTree<T>[] children;
+	// children are kept packed in children[0..numChildren[ and sorted
+	private int numChildren;
+	// keys[i] is the value of children[i], kept by updateCounters, so the
+	// binary search over the children reads one contiguous array instead of
+	// one node per probe; only allocated once the node has children
+	private T[] keys;
+
+	// cached aggregates of this subtree, kept up to date by insert/delete
+	private int size;
+	// offsets[i] is the number of elements of this subtree before the
+	// subtree of children[i], ie, 1 + the sizes of the children before it;
+	// only allocated once the node has children
+	private int[] offsets;
+	private int height;
+	private int leaves;
+
+	/**
+	 * The state of a whole tree, rather than of one of its nodes
+	 */
+	private static final class Shared<T> {
+
+		// the ordering of the elements; all comparisons go through it
+		private final Comparator<? super T> comparator;
+
+		// number of changes made through this tree, used by its iterators to
+		// detect concurrent modifications
+		private int modCount;
+
+		// the nodes removed from the tree, kept with their arrays to be
+		// reused by later insertions, and linked by their children[0]
+		private ArrayNTree<T> free;
+		private int numFree;
+
+		private Shared(Comparator<? super T> comparator) {
+			this.comparator = comparator == null ? NATURAL : comparator;
+		}
+	}
+
+	/**
+	 * Creates an empty tree, ordered by the natural ordering of its elements,
+	 * which must be Comparable, with nodes of CACHE_LINE_CAPACITY children
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 */
+	public ArrayNTree() {
+		this(CACHE_LINE_CAPACITY);
+	}
 
 	/**
-	 * Creates an empty tree
+	 * Creates an empty tree, ordered by the natural ordering of its elements,
+	 * which must be Comparable
 	 * 
 	 * @best-case O(1)
 	 * @worst-case O(1)
@@ -26,15 +114,44 @@ public class ArrayNTree<T extends Comparable<T>> implements NTree<T> {
 	 *            The capacity of each node, ie, the maximum number of direct
 	 *            successors
 	 */
-	@SuppressWarnings("unchecked")
 	public ArrayNTree(int capacity) {
+		this(capacity, null);
+	}
+
+	/**
+	 * Creates an empty tree, ordered by the given comparator
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 * 
+	 * @param capacity
+	 *            The capacity of each node, ie, the maximum number of direct
+	 *            successors
+	 * @param comparator
+	 *            The ordering of the elements, or null for their natural
+	 *            ordering
+	 */
+	public ArrayNTree(int capacity, Comparator<? super T> comparator) {
+		this(new Shared<>(comparator), capacity);
+	}
+
+	// an empty node of the tree with the given state
+	private ArrayNTree(Shared<T> shared, int capacity) {
 		data = null;
-		this.children = (ArrayNTree<T>[]) Array.newInstance(ArrayNTree.class,
-				capacity);
+		this.children = newNodes(capacity);
+		this.shared = shared;
+	}
+
+	// a leaf of the tree with the given state
+	private ArrayNTree(Shared<T> shared, T elem, int capacity) {
+		this(shared, capacity);
+		data = elem;
+		updateCounters();
 	}
 
 	/**
-	 * Create a tree with one element
+	 * Create a tree with one element, ordered by the natural ordering of its
+	 * elements
 	 * 
 	 * @best-case O(1)
 	 * @worst-case O(1)
@@ -45,15 +162,34 @@ public class ArrayNTree<T extends Comparable<T>> implements NTree<T> {
 	 *            The capacity of each node, ie, the maximum number of direct
 	 *            successors
 	 */
-	@SuppressWarnings("unchecked")
 	public ArrayNTree(T elem, int capacity) {
+		this(elem, capacity, null);
+	}
+
+	/**
+	 * Create a tree with one element, ordered by the given comparator
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 * 
+	 * @param elem
+	 *            The element value
+	 * @param capacity
+	 *            The capacity of each node, ie, the maximum number of direct
+	 *            successors
+	 * @param comparator
+	 *            The ordering of the elements, or null for their natural
+	 *            ordering
+	 */
+	public ArrayNTree(T elem, int capacity, Comparator<? super T> comparator) {
+		this(capacity, comparator);
 		data = elem;
-		this.children = (ArrayNTree<T>[]) Array.newInstance(ArrayNTree.class,
-				capacity);
+		updateCounters();
 	}
 
 	/**
-	 * Creates a tree with the elements inside the given list
+	 * Creates a tree with the elements inside the given list, ordered by
+	 * their natural ordering
 	 * 
 	 * @best-case O(1)
 	 * @worst-case O(n)
@@ -64,17 +200,330 @@ public class ArrayNTree<T extends Comparable<T>> implements NTree<T> {
 	 *            The capacity of each node, ie, the maximum number of direct
 	 *            successors
 	 */
-	@SuppressWarnings("unchecked")
 	public ArrayNTree(List<T> list, int capacity) {
-		data = null;
-		this.children = (ArrayNTree<T>[]) Array.newInstance(ArrayNTree.class,
-				capacity);
+		this(list, capacity, null);
+	}
+
+	/**
+	 * Creates a tree with the elements inside the given list, ordered by the
+	 * given comparator
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(n)
+	 * 
+	 * @param elem
+	 *            The list with all the elements to insert
+	 * @param capacity
+	 *            The capacity of each node, ie, the maximum number of direct
+	 *            successors
+	 * @param comparator
+	 *            The ordering of the elements, or null for their natural
+	 *            ordering
+	 */
+	public ArrayNTree(List<T> list, int capacity,
+			Comparator<? super T> comparator) {
+		this(capacity, comparator);
 
 		for (int i = 0; i < list.size(); i++) {
 			insert(list.get(i));
 		}
 	}
 
+	/**
+	 * Creates a balanced tree with the elements of the given collection,
+	 * built bottom-up instead of inserting them one by one. The elements are
+	 * sorted first, unless they already are. Each node keeps up to
+	 * ceil(capacity * fillFactor) children, so a fill factor below 1 leaves
+	 * room in every node for later insertions
+	 * 
+	 * @best-case O(n)
+	 * @worst-case O(n log n), if the elements are not sorted
+	 * 
+	 * @param elems
+	 *            The elements to insert
+	 * @param capacity
+	 *            The capacity of each node, ie, the maximum number of direct
+	 *            successors
+	 * @param fillFactor
+	 *            The fraction of each node's capacity to fill, in ]0, 1]
+	 * @param removeDuplicates
+	 *            true if repeated elements are to be discarded; if false,
+	 *            repeated elements are an error
+	 * @throws IllegalArgumentException
+	 *             if the capacity or the fill factor are not valid, or if
+	 *             there are repeated elements and removeDuplicates is false
+	 * @return the new tree
+	 */
+	public static <T extends Comparable<T>> ArrayNTree<T> bulkLoad(
+			Collection<? extends T> elems, int capacity, double fillFactor,
+			boolean removeDuplicates) {
+		return load(elems, capacity, fillFactor, removeDuplicates,
+				Integer.MAX_VALUE, null);
+	}
+
+	/**
+	 * Creates a balanced tree as bulkLoad does, ordered by the given
+	 * comparator
+	 * 
+	 * @best-case O(n)
+	 * @worst-case O(n log n), if the elements are not sorted
+	 * 
+	 * @param elems
+	 *            The elements to insert
+	 * @param capacity
+	 *            The capacity of each node, ie, the maximum number of direct
+	 *            successors
+	 * @param fillFactor
+	 *            The fraction of each node's capacity to fill, in ]0, 1]
+	 * @param removeDuplicates
+	 *            true if repeated elements are to be discarded; if false,
+	 *            repeated elements are an error
+	 * @param comparator
+	 *            The ordering of the elements, or null for their natural
+	 *            ordering
+	 * @throws IllegalArgumentException
+	 *             if the capacity or the fill factor are not valid, or if
+	 *             there are repeated elements and removeDuplicates is false
+	 * @return the new tree
+	 */
+	public static <T> ArrayNTree<T> bulkLoad(Collection<? extends T> elems,
+			int capacity, double fillFactor, boolean removeDuplicates,
+			Comparator<? super T> comparator) {
+		return load(elems, capacity, fillFactor, removeDuplicates,
+				Integer.MAX_VALUE, comparator);
+	}
+
+	/**
+	 * Creates a balanced tree as bulkLoad does, sorting the elements and
+	 * building the subtrees of more than threshold elements in parallel, in
+	 * the common fork/join pool. The resulting tree is the same
+	 * 
+	 * @best-case O(n / p), for p processors
+	 * @worst-case O(n log n / p), if the elements are not sorted
+	 * 
+	 * @param elems
+	 *            The elements to insert
+	 * @param capacity
+	 *            The capacity of each node, ie, the maximum number of direct
+	 *            successors
+	 * @param fillFactor
+	 *            The fraction of each node's capacity to fill, in ]0, 1]
+	 * @param removeDuplicates
+	 *            true if repeated elements are to be discarded; if false,
+	 *            repeated elements are an error
+	 * @param threshold
+	 *            The number of elements below which a subtree is built
+	 *            sequentially
+	 * @throws IllegalArgumentException
+	 *             if the capacity, the fill factor or the threshold are not
+	 *             valid, or if there are repeated elements and
+	 *             removeDuplicates is false
+	 * @return the new tree
+	 */
+	public static <T extends Comparable<T>> ArrayNTree<T> parallelBulkLoad(
+			Collection<? extends T> elems, int capacity, double fillFactor,
+			boolean removeDuplicates, int threshold) {
+		return parallelBulkLoad(elems, capacity, fillFactor, removeDuplicates,
+				threshold, null);
+	}
+
+	/**
+	 * Creates a balanced tree in parallel, ordered by the given comparator
+	 * 
+	 * @see #parallelBulkLoad(Collection, int, double, boolean, int)
+	 */
+	public static <T> ArrayNTree<T> parallelBulkLoad(
+			Collection<? extends T> elems, int capacity, double fillFactor,
+			boolean removeDuplicates, int threshold,
+			Comparator<? super T> comparator) {
+		if (threshold < 1)
+			throw new IllegalArgumentException("threshold must be positive");
+		return load(elems, capacity, fillFactor, removeDuplicates, threshold,
+				comparator);
+	}
+
+	/**
+	 * Creates a balanced tree in parallel, with the default threshold
+	 * 
+	 * @see #parallelBulkLoad(Collection, int, double, boolean, int)
+	 */
+	public static <T extends Comparable<T>> ArrayNTree<T> parallelBulkLoad(
+			Collection<? extends T> elems, int capacity, double fillFactor,
+			boolean removeDuplicates) {
+		return parallelBulkLoad(elems, capacity, fillFactor, removeDuplicates,
+				DEFAULT_SEQUENTIAL_THRESHOLD);
+	}
+
+	// bulkLoad, in parallel for more than threshold elements
+	private static <T> ArrayNTree<T> load(Collection<? extends T> elems,
+			int capacity, double fillFactor, boolean removeDuplicates,
+			int threshold, Comparator<? super T> comparator) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+		if (!(fillFactor > 0 && fillFactor <= 1))
+			throw new IllegalArgumentException("fill factor must be in ]0, 1]");
+
+		ArrayNTree<T> empty = new ArrayNTree<>(capacity, comparator);
+		boolean parallel = elems.size() > threshold;
+		T[] array = sortedArray(elems, removeDuplicates, parallel,
+				empty.shared.comparator);
+		if (array.length == 0)
+			return empty;
+
+		int fanOut = Math.max(1, (int) Math.ceil(capacity * fillFactor));
+		if (!parallel)
+			return build(array, 0, array.length, capacity, fanOut,
+					empty.shared);
+		return ForkJoinPool.commonPool().invoke(new BuildTask<>(array, 0,
+				array.length, capacity, fanOut, threshold, empty.shared));
+	}
+
+	/**
+	 * Copies the given elements into a sorted array without repetitions. The
+	 * elements are only sorted if they are not sorted already
+	 * 
+	 * @best-case O(n)
+	 * @worst-case O(n log n)
+	 * 
+	 * @param elems
+	 *            the elements to copy
+	 * @param removeDuplicates
+	 *            true if repeated elements are to be discarded; if false,
+	 *            repeated elements are an error
+	 * @param parallel
+	 *            true if the elements are to be sorted in parallel
+	 * @param comparator
+	 *            the ordering of the elements
+	 * @throws IllegalArgumentException
+	 *             if there are repeated elements and removeDuplicates is
+	 *             false
+	 * @return the sorted array, with no empty positions
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> T[] sortedArray(Collection<? extends T> elems,
+			boolean removeDuplicates, boolean parallel,
+			Comparator<? super T> comparator) {
+		T[] array = (T[]) elems.toArray();
+
+		boolean sorted = true;
+		for (int i = 1; i < array.length && sorted; i++)
+			sorted = comparator.compare(array[i - 1], array[i]) <= 0;
+		if (!sorted && parallel)
+			Arrays.parallelSort(array, comparator);
+		else if (!sorted)
+			Arrays.sort(array, comparator);
+
+		int n = 0;
+		for (int i = 0; i < array.length; i++) {
+			if (n > 0 && comparator.compare(array[n - 1], array[i]) == 0) {
+				if (!removeDuplicates)
+					throw new IllegalArgumentException(
+							"repeated element: " + array[i]);
+			} else {
+				array[n++] = array[i];
+			}
+		}
+
+		return n == array.length ? array : Arrays.copyOf(array, n);
+	}
+
+	/**
+	 * Builds the subtree with the sorted elements array[from..to[. The first
+	 * element becomes the node's value and the remaining ones are split in
+	 * consecutive ranges of (almost) the same size, one per child, which
+	 * gives the minimum height for the given fan out
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(n)
+	 * 
+	 * @requires from < to && array[from..to[ sorted without repetitions
+	 * @param array
+	 *            the sorted elements
+	 * @param from
+	 *            the first position, inclusive
+	 * @param to
+	 *            the last position, exclusive
+	 * @param capacity
+	 *            the capacity of each node
+	 * @param fanOut
+	 *            the maximum number of children to use on each node
+	 * @param shared
+	 *            the state of the tree the subtree belongs to
+	 * @return the root of the subtree
+	 */
+	private static <T> ArrayNTree<T> build(T[] array, int from, int to,
+			int capacity, int fanOut, Shared<T> shared) {
+		ArrayNTree<T> node = new ArrayNTree<>(shared, array[from], capacity);
+
+		int rest = to - from - 1;
+		int nChildren = Math.min(fanOut, rest);
+		int start = from + 1;
+		for (int i = 0; i < nChildren; i++) {
+			int end = start + rest / nChildren + (i < rest % nChildren ? 1 : 0);
+			node.children[i] = build(array, start, end, capacity, fanOut,
+					shared);
+			start = end;
+		}
+		node.numChildren = nChildren;
+		node.updateCounters();
+
+		return node;
+	}
+
+	/**
+	 * Builds the subtree with the sorted elements array[from..to[ as build
+	 * does, with the children of more than threshold elements built in
+	 * parallel
+	 */
+	private static class BuildTask<T> extends RecursiveTask<ArrayNTree<T>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final T[] array;
+		private final int from, to, capacity, fanOut, threshold;
+		private final Shared<T> shared;
+
+		BuildTask(T[] array, int from, int to, int capacity, int fanOut,
+				int threshold, Shared<T> shared) {
+			this.array = array;
+			this.from = from;
+			this.to = to;
+			this.capacity = capacity;
+			this.fanOut = fanOut;
+			this.threshold = threshold;
+			this.shared = shared;
+		}
+
+		@Override
+		protected ArrayNTree<T> compute() {
+			if (to - from <= threshold)
+				return build(array, from, to, capacity, fanOut, shared);
+
+			ArrayNTree<T> node = new ArrayNTree<>(shared, array[from],
+					capacity);
+
+			int rest = to - from - 1;
+			int nChildren = Math.min(fanOut, rest);
+			List<BuildTask<T>> tasks = new ArrayList<>(nChildren);
+			int start = from + 1;
+			for (int i = 0; i < nChildren; i++) {
+				int end = start + rest / nChildren
+						+ (i < rest % nChildren ? 1 : 0);
+				tasks.add(new BuildTask<>(array, start, end, capacity, fanOut,
+						threshold, shared));
+				start = end;
+			}
+
+			invokeAll(tasks);
+			for (int i = 0; i < nChildren; i++)
+				node.children[i] = tasks.get(i).join();
+			node.numChildren = nChildren;
+			node.updateCounters();
+
+			return node;
+		}
+	}
+
 	/**
 	 * Verifies if tree is empty
 	 * 
@@ -91,42 +540,23 @@ public class ArrayNTree<T extends Comparable<T>> implements NTree<T> {
 	 * Verifies if tree is a leaf, ie, only has one element
 	 * 
 	 * @best-case O(1)
-	 * @worst-case O(n)
+	 * @worst-case O(1)
 	 * 
 	 * @return true iff tree is a leaf
 	 */
 	public boolean isLeaf() {
-		boolean allChildrenAreNull = true;
-
-		if (children == null || children.length == 0)
-			return true;
-
-		for (int i = 0; i < children.length; i++) {
-			if (children[i] != null)
-				allChildrenAreNull = false;
-		}
-
-		return this.data != null && allChildrenAreNull;
+		return this.data != null && numChildren == 0;
 	}
 
 	/**
 	 * The number of elements of a tree. An empty tree has zero elements
 	 * 
 	 * @best-case O(1)
-	 * @worst-case O(n)
+	 * @worst-case O(1)
 	 * 
 	 * @return the number of elements
 	 */
 	public int size() {
-		if (isEmpty())
-			return 0;
-
-		int size = 1;
-		for (int i = 0; i < children.length; i++) {
-			if (children[i] != null)
-				size += children[i].size();
-		}
-
 		return size;
 	}
 
@@ -134,27 +564,11 @@ public class ArrayNTree<T extends Comparable<T>> implements NTree<T> {
 	 * Count the number of leaves. An empty tree has zero leaves
 	 * 
 	 * @best-case O(1)
-	 * @worst-case O(n)
+	 * @worst-case O(1)
 	 * 
 	 * @return the number of leaves
 	 */
 	public int countLeaves() {
-		if (isEmpty())
-			return 0;
-
-		if (isLeaf())
-			return 1;
-
-		int leaves = 0;
-		for (int i = 0; i < children.length; i++) {
-			if (children[i] != null) {
-				if (children[i].isLeaf())
-					leaves++;
-				else
-					leaves += children[i].countLeaves();
-			}
-		}
-
 		return leaves;
 	}
 
@@ -162,28 +576,49 @@ public class ArrayNTree<T extends Comparable<T>> implements NTree<T> {
 	 * The tree's height. An empty tree has height zero, a leaf has height one
 	 * 
 	 * @best-case O(1)
-	 * @worst-case O(n)
+	 * @worst-case O(1)
 	 * 
 	 * @return the tree's height
 	 */
 	public int height() {
-		if (isEmpty())
-			return 0;
-
-		if (isLeaf())
-			return 1;
+		return height;
+	}
 
-		int[] heights = new int[children.length];
+	/**
+	 * Recomputes the cached size, height and number of leaves of this node
+	 * from the cached values of its direct children, and the keys of its
+	 * children. Must be called whenever the node or its children change
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(capacity)
+	 */
+	@SuppressWarnings("unchecked")
+	private void updateCounters() {
+		if (isEmpty()) {
+			size = 0;
+			height = 0;
+			leaves = 0;
+			return;
+		}
 
-		for (int i = 0; i < children.length; i++) {
-			if (children[i] != null) {
-				heights[i] = 1 + children[i].height();
-			}
+		if (numChildren > 0 && offsets == null) {
+			offsets = new int[children.length];
+			keys = (T[]) new Object[children.length];
 		}
 
-		Arrays.sort(heights);
+		size = 1;
+		height = 1;
+		leaves = 0;
+		for (int i = 0; i < numChildren; i++) {
+			offsets[i] = size;
+			keys[i] = children[i].data;
+			size += children[i].size;
+			height = Math.max(height, 1 + children[i].height);
+			leaves += children[i].leaves;
+		}
 
-		return heights[heights.length - 1];
+		if (isLeaf())
+			leaves = 1;
 	}
 
 	/**
@@ -192,424 +627,1800 @@ public class ArrayNTree<T extends Comparable<T>> implements NTree<T> {
 	 * @best-case O(1)
 	 * @worst-case O(1)
 	 * 
-	 * @requires !isEmpty()
-	 * @return the minimum value
+	 * @return the minimum value, or null if the tree is empty
 	 */
 	public T min() {
-		List<T> result = toList();
-		return result.get(0);
+		return data;
 	}
 
 	/**
-	 * The maximum value of the tree
+	 * The maximum value of the tree, found by following the last child of
+	 * each node
 	 * 
 	 * @best-case O(1)
-	 * @worst-case O(1)
+	 * @worst-case O(log n)
 	 * 
-	 * @requires !isEmpty()
-	 * @return the maximum value
+	 * @return the maximum value, or null if the tree is empty
 	 */
 	public T max() {
-		List<T> result = toList();
-		return result.get(result.size() - 1);
+		ArrayNTree<T> node = this;
+
+		while (node.numChildren > 0)
+			node = node.children[node.numChildren - 1];
+
+		return node.data;
 	}
 
 	/**
-	 * Verifies is an element in in the tree
+	 * The greatest element of the tree less than or equal to the given one
 	 * 
 	 * @best-case O(1)
-	 * @worst-case O(n)
+	 * @worst-case O(log n)
 	 * 
 	 * @param elem
-	 *            the element to be searched
-	 * @return true iff elem belongs to tree
+	 *            the element to be compared
+	 * @return the greatest element <= elem, or null if there is none
 	 */
-	public boolean contains(T elem) {
-		if (isEmpty())
-			return false;
-
-		if (isLeaf()) {
-			return data.equals(elem) ? true : false;
-		} else {
-			if (data.equals(elem))
-				return true;
-
-			for (int i = 0; i < children.length; i++) {
-				if (children[i] != null && children[i].contains(elem)) {
-					return true;
-				}
-			}
-		}
-
-		return false;
+	public T floor(T elem) {
+		return floorOrLower(elem, true);
 	}
 
 	/**
-	 * Insert element into tree keeping the invariant If an element already
-	 * exists, the tree does not change
+	 * The smallest element of the tree greater than or equal to the given one
 	 * 
 	 * @best-case O(1)
-	 * @worst-case O(n^2)
+	 * @worst-case O(log n)
 	 * 
 	 * @param elem
-	 *            the element to be inserted
+	 *            the element to be compared
+	 * @return the smallest element >= elem, or null if there is none
 	 */
-	@SuppressWarnings("unchecked")
-	public void insert(T elem) {
-		if (!contains(elem)) {
-			if (isEmpty()) {
-				data = elem;
-			} else {
-				if (isLeaf()) {
-					children[0] = new ArrayNTree<>(elem, children.length);
-				} else {
-					if (elem.compareTo(data) < 0) {
-						List<T> listAux = toList();
-						data = elem;
-						this.children = (ArrayNTree<T>[]) Array
-								.newInstance(ArrayNTree.class, children.length);
-						for (int i = 0; i < listAux.size(); i++) {
-							insert(listAux.get(i));
-						}
-					} else {
-						// O elemento E a guardar num array com espaco livre:
-						// este tera de se colocar
-						// ou (a) no inicio ou meio do vetor (tendo-se de
-						// empurrar os restantes) ou
-						// (b) no fim do vetor. De notar que so se pode colocar
-						// E no vetor da raiz
-						// se o maior dos filhos do elemento anterior for menor
-						// que E (cf. o segundo
-						// exemplo dos seguintes).
-						boolean inseriu = false;
-						if (existsSpaceInTheArrayOfChildren()) {
-							for (int i = 1; i < children.length
-									&& !inseriu; i++) {
-								T elementGreatter = greaterElementOfTheSon(
-										children[i - 1]);
-
-								if (elementGreatter == null) {
-									if (children[i] == null) {
-										inseriu = true;
-										children[i] = new ArrayNTree<>(elem,
-												children.length);
-									}
-								} else {
-									if (elem.compareTo(greaterElementOfTheSon(
-											children[i])) > 0) {
-										inseriu = true;
-										children[i].data = elem;
-									}
-								}
-							}
-
-							// Ordena os filhos
-							if (inseriu) {
-								bubbleSort(children);
-							}
-						}
-
-						if (!existsSpaceInTheArrayOfChildren() || !inseriu) {
-							for (int i = 0; i < children.length - 1; i++) {
-								if (elem.compareTo(children[i].data) > 0 && elem
-										.compareTo(children[i + 1].data) < 0) {
-									children[i].insert(elem);
-									inseriu = true;
-									break;
-								}
-							}
-							if (!inseriu) {
-								children[children.length - 1].insert(elem);
-							}
-						}
-					}
-				}
-			}
-		}
+	public T ceiling(T elem) {
+		return ceilingOrHigher(elem, true);
 	}
 
 	/**
-	 * Sorts the children in in the tree
+	 * The greatest element of the tree strictly less than the given one
 	 * 
-	 * @best-case O(n)
-	 * @worst-case O(n^2)
-	 * 
-	 * @param children2
-	 */
-	private void bubbleSort(ArrayNTree<T>[] children2) {
-		boolean swapped = true;
-		int j = 0;
-		T tmp;
-		while (swapped) {
-			swapped = false;
-			j++;
-			for (int i = 0; i < children2.length - j; i++) {
-				if (children2[i] != null && children2[i + 1] != null
-						&& children2[i].data
-								.compareTo(children2[i + 1].data) > 0) {
-					tmp = children2[i].data;
-					children2[i].data = children2[i + 1].data;
-					children2[i + 1].data = tmp;
-					swapped = true;
-				}
-			}
-		}
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 * 
+	 * @param elem
+	 *            the element to be compared
+	 * @return the greatest element < elem, or null if there is none
+	 */
+	public T lower(T elem) {
+		return floorOrLower(elem, false);
 	}
 
 	/**
-	 * Returns the biggest element in our children array
+	 * The smallest element of the tree strictly greater than the given one
 	 * 
-	 * @best-case O(n)
-	 * @worst-case O(n)
+	 * @best-case O(1)
+	 * @worst-case O(log n)
 	 * 
-	 * @param children2
-	 * @return
+	 * @param elem
+	 *            the element to be compared
+	 * @return the smallest element > elem, or null if there is none
 	 */
-	private T greaterElementOfTheSon(ArrayNTree<T> children2) {
-		T element = null;
-
-		if (children2 == null || children2.children == null)
-			return element;
-
-		for (int i = 0; i < children2.children.length; i++) {
-			if (element == null) {
-				if (children2.children[i] != null) {
-					element = children2.children[i].data;
-				}
-			} else {
-				if (children2.children[i].data.compareTo(element) > 0) {
-					element = children2.children[i].data;
-				}
-			}
-		}
-
-		return element;
+	public T higher(T elem) {
+		return ceilingOrHigher(elem, false);
 	}
 
 	/**
-	 * Verifies if there is space to insert a new element
+	 * Descends towards elem keeping the last value found before it. As the
+	 * value of a node is the smallest of its subtree, the search stops as
+	 * soon as a node is not before elem
 	 * 
-	 * @best-case O(n)
-	 * @worst-case O(n)
+	 * @best-case O(1)
+	 * @worst-case O(log n)
 	 * 
-	 * @return
+	 * @param elem
+	 *            the element to be compared
+	 * @param inclusive
+	 *            true if elem itself may be returned
+	 * @return the floor of elem if inclusive, its lower element otherwise
 	 */
-	private boolean existsSpaceInTheArrayOfChildren() {
-		for (int i = 0; i < children.length; i++) {
-			if (children[i] == null) {
-				return true;
-			}
+	private T floorOrLower(T elem, boolean inclusive) {
+		ArrayNTree<T> node = this;
+		T result = null;
+
+		while (node != null && !node.isEmpty()) {
+			int cmp = compare(elem, node.data);
+			if (cmp == 0 && inclusive)
+				return node.data;
+			if (cmp <= 0)
+				return result;
+
+			result = node.data;
+			int i = node.findChild(elem, inclusive);
+			node = i < 0 ? null : node.children[i];
 		}
 
-		return false;
+		return result;
 	}
 
 	/**
-	 * Delete element from tree keeping the invariant If an element does not
-	 * exist, the tree does not change
+	 * Descends towards elem keeping the value of the child following the
+	 * path, which is the answer if nothing after elem is found below
 	 * 
 	 * @best-case O(1)
-	 * @worst-case O(n^2)
+	 * @worst-case O(log n)
 	 * 
 	 * @param elem
-	 *            the element to be deleted
+	 *            the element to be compared
+	 * @param inclusive
+	 *            true if elem itself may be returned
+	 * @return the ceiling of elem if inclusive, its higher element otherwise
 	 */
-	@SuppressWarnings("unchecked")
-	public void delete(T elem) {
-		if (!isEmpty()) {
-			if (isLeaf()) {
-				if (data.equals(elem)) {
-					data = null;
-					children = (ArrayNTree<T>[]) Array
-							.newInstance(ArrayNTree.class, children.length);
-				}
+	private T ceilingOrHigher(T elem, boolean inclusive) {
+		ArrayNTree<T> node = this;
+		T result = null;
+
+		while (node != null && !node.isEmpty()) {
+			int cmp = compare(elem, node.data);
+			if (cmp < 0 || (cmp == 0 && inclusive))
+				return node.data;
+
+			int i = node.findChild(elem, true);
+			if (i + 1 < node.numChildren)
+				result = node.keys[i + 1];
+			node = i < 0 ? null : node.children[i];
+		}
+
+		return result;
+	}
+
+	/**
+	 * Verifies is an element in in the tree
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 * 
+	 * @param elem
+	 *            the element to be searched
+	 * @return true iff elem belongs to tree
+	 */
+	public boolean contains(T elem) {
+		ArrayNTree<T> node = this;
+
+		while (node != null && !node.isEmpty()) {
+			int cmp = compare(elem, node.data);
+			if (cmp == 0)
+				return true;
+			if (cmp < 0)
+				return false;
+
+			int i = node.findChild(elem);
+			node = i < 0 ? null : node.children[i];
+		}
+
+		return false;
+	}
+
+	/**
+	 * Compares two elements by the tree's ordering. Every search of the tree
+	 * goes through here; only the tree's own equals uses the elements' equals
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 * 
+	 * @return a negative number, zero, or a positive number as a is less
+	 *         than, equal to, or greater than b
+	 */
+	private int compare(T a, T b) {
+		return shared.comparator.compare(a, b);
+	}
+
+	/**
+	 * The comparator ordering the elements
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 * 
+	 * @return the comparator, or null if the elements are in their natural
+	 *         ordering
+	 */
+	public Comparator<? super T> comparator() {
+		return shared.comparator == NATURAL ? null : shared.comparator;
+	}
+
+	/**
+	 * Finds the only child whose subtree may hold the given element, ie, the
+	 * last child whose value is not greater than elem. As the children are
+	 * sorted, a binary search is used
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(log capacity)
+	 * 
+	 * @param elem
+	 *            the element to be searched
+	 * @return the index of that child, or -1 if elem is smaller than every
+	 *         child (or there are no children)
+	 */
+	private int findChild(T elem) {
+		return findChild(elem, true);
+	}
+
+	/**
+	 * Finds the last child whose value is before elem (or equal to it, if
+	 * inclusive)
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(log capacity)
+	 * 
+	 * @param elem
+	 *            the element to be searched
+	 * @param inclusive
+	 *            true if a child with value elem may be returned
+	 * @return the index of that child, or -1 if there is none
+	 */
+	private int findChild(T elem, boolean inclusive) {
+		int low = 0;
+		int high = numChildren - 1;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compare(keys[mid], elem);
+			if (cmp < 0 || (cmp == 0 && inclusive))
+				low = mid + 1;
+			else
+				high = mid - 1;
+		}
+
+		return high;
+	}
+
+	/**
+	 * Insert element into tree keeping the invariant If an element already
+	 * exists, the tree does not change
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(n), when a subtree is rebuilt by balance; amortized
+	 *             O(log^2 n), as each node of the path may look for the
+	 *             maximum of a child
+	 * 
+	 * @param elem
+	 *            the element to be inserted
+	 */
+	public void insert(T elem) {
+		if (!contains(elem)) {
+			add(elem);
+			shared.modCount++;
+		}
+	}
+
+	/**
+	 * Adds an element known not to be in this subtree
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(n), when a subtree is rebuilt by balance; amortized
+	 *             O(log^2 n)
+	 * 
+	 * @requires !contains(elem)
+	 * @param elem
+	 *            the element to be inserted
+	 */
+	private void add(T elem) {
+		if (isEmpty() || compare(elem, data) < 0) {
+			insertSmallest(elem);
+		} else {
+			// O elemento E a guardar num array com espaco livre
+			// pode ficar no inicio, meio ou fim do vetor (tendo-se de
+			// empurrar os restantes). De notar que so se pode colocar
+			// E no vetor se o maior elemento do filho anterior for
+			// menor que E; caso contrario E desce para esse filho
+			int i = findChild(elem);
+			if (existsSpaceInTheArrayOfChildren()) {
+				if (i >= 0 && compare(elem, children[i].max()) < 0)
+					children[i].add(elem);
+				else
+					addChild(i + 1, newNode(elem));
+			} else if (i >= 0) {
+				children[i].add(elem);
 			} else {
-				if (contains(elem)) {
-					if (data.equals(elem)) {
-						for (int i = 0; i < children.length; i++) {
-							if (children[i] != null) {
-								data = children[i].data;
-								children[i].delete(data);
-								children[i] = null;
-								break;
-							}
-						}
-					} else {
-						boolean removed = false;
-						for (int i = 0; i < children.length; i++) {
-							if (children[i] != null
-									&& elem.equals(children[i].data)) {
-								removed = true;
-								if (children[i].isLeaf()) {
-									children[i] = null;
-								} else {
-									if (children[i].children[0] != null) {
-										children[i].data = children[i].children[0].data;
-										for (int j = 1; j < children[i].children.length; j++) {
-											children[i].children[j
-													- 1] = children[i].children[j];
-										}
-										children[i].children[children[i].children.length
-												- 1] = null;
-									} else {
-										children[i].data = null;
-									}
-								}
-							}
-						}
-
-						if (!removed) {
-							for (int i = 0; i < children.length; i++) {
-								if (children[i] != null) {
-									children[i].delete(elem);
-								}
-							}
-						}
-					}
-				}
+				children[0].insertSmallest(elem);
+			}
+			updateCounters();
+			balance();
+		}
+	}
+
+	/**
+	 * Inserts an element smaller than every element of this subtree. The
+	 * element takes the place of this node's value, which is pushed down to
+	 * become the smallest element among the children: either as a new first
+	 * child or, when there is no space, into the first child
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(n), when a subtree is rebuilt by balance; amortized
+	 *             O(log n)
+	 * 
+	 * @requires isEmpty() || compare(elem, min()) < 0
+	 * @param elem
+	 *            the element to be inserted
+	 */
+	private void insertSmallest(T elem) {
+		T old = data;
+		data = elem;
+
+		if (old != null) {
+			if (existsSpaceInTheArrayOfChildren())
+				addChild(0, newNode(old));
+			else
+				children[0].insertSmallest(old);
+		}
+
+		updateCounters();
+		balance();
+	}
+
+	/**
+	 * Places a new child at the given position, pushing the following
+	 * children to the right
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(capacity)
+	 * 
+	 * @requires existsSpaceInTheArrayOfChildren()
+	 * @param pos
+	 *            the position of the new child
+	 * @param child
+	 *            the new child
+	 */
+	private void addChild(int pos, ArrayNTree<T> child) {
+		System.arraycopy(children, pos, children, pos + 1, numChildren - pos);
+		children[pos] = child;
+		numChildren++;
+	}
+
+	/**
+	 * Removes the child at the given position, pulling the following children
+	 * to the left
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(capacity)
+	 * 
+	 * @param pos
+	 *            the position of the child to remove
+	 */
+	private void removeChild(int pos) {
+		System.arraycopy(children, pos + 1, children, pos,
+				numChildren - pos - 1);
+		children[--numChildren] = null;
+		keys[numChildren] = null;
+	}
+
+	// generic arrays cannot be created, so a raw one is created and cast
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <T> ArrayNTree<T>[] newNodes(int n) {
+		return new ArrayNTree[n];
+	}
+
+	/**
+	 * A leaf with the given element, reusing a node removed from this tree
+	 * if there is one, so that insertions after deletions do not allocate
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(capacity)
+	 * 
+	 * @param elem
+	 *            the element of the leaf
+	 * @return the new leaf
+	 */
+	private ArrayNTree<T> newNode(T elem) {
+		ArrayNTree<T> node = shared.free;
+		if (node == null)
+			return new ArrayNTree<>(shared, elem, children.length);
+
+		shared.free = node.children[0];
+		shared.numFree--;
+		node.children[0] = null;
+		node.data = elem;
+		node.updateCounters();
+		return node;
+	}
+
+	/**
+	 * Keeps all the nodes of a subtree removed from this tree for newNode to
+	 * reuse, beyond MAX_FREE_NODES: balance takes as many right back, and
+	 * rebuild trims the rest
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(n)
+	 * 
+	 * @param node
+	 *            the root of the removed subtree
+	 */
+	private void recycleSubtree(ArrayNTree<T> node) {
+		for (int i = 0; i < node.numChildren; i++)
+			recycleSubtree(node.children[i]);
+
+		node.clearChildren();
+		node.data = null;
+		node.children[0] = shared.free;
+		shared.free = node;
+		shared.numFree++;
+	}
+
+	/**
+	 * Removes all the children of this node, keeping its arrays
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(capacity)
+	 */
+	private void clearChildren() {
+		Arrays.fill(children, 0, numChildren, null);
+		if (keys != null)
+			Arrays.fill(keys, 0, numChildren, null);
+		numChildren = 0;
+	}
+
+	/**
+	 * Keeps an empty node removed from this tree, with its arrays, for
+	 * newNode to reuse, up to MAX_FREE_NODES nodes
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 * 
+	 * @requires node.isEmpty()
+	 * @param node
+	 *            the removed node
+	 */
+	private void recycle(ArrayNTree<T> node) {
+		if (shared.numFree < MAX_FREE_NODES) {
+			node.children[0] = shared.free;
+			shared.free = node;
+			shared.numFree++;
+		}
+	}
+
+	/**
+	 * Verifies if there is space to insert a new element
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 * 
+	 * @return
+	 */
+	private boolean existsSpaceInTheArrayOfChildren() {
+		return numChildren < children.length;
+	}
+
+	/**
+	 * Delete element from tree keeping the invariant If an element does not
+	 * exist, the tree does not change
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(n), when a subtree is rebuilt by balance; amortized
+	 *             O(log n)
+	 * 
+	 * @param elem
+	 *            the element to be deleted
+	 */
+	public void delete(T elem) {
+		if (contains(elem)) {
+			remove(elem);
+			shared.modCount++;
+		}
+	}
+
+	/**
+	 * Removes an element known to be in this subtree. When the value of a
+	 * node is removed, it is replaced by the value of its first child (the
+	 * smallest one of its subtrees), which is then removed from that child
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(n), when a subtree is rebuilt by balance; amortized
+	 *             O(log n)
+	 * 
+	 * @requires contains(elem)
+	 * @param elem
+	 *            the element to be removed
+	 */
+	private void remove(T elem) {
+		int i;
+
+		if (compare(elem, data) == 0) {
+			if (isLeaf()) {
+				data = null;
+				updateCounters();
+				return;
 			}
+			data = children[0].data;
+			elem = data;
+			i = 0;
+		} else {
+			i = findChild(elem);
+		}
+
+		children[i].remove(elem);
+		if (children[i].isEmpty()) {
+			recycle(children[i]);
+			removeChild(i);
 		}
+
+		updateCounters();
+		balance();
+	}
+
+	/**
+	 * Rebuilds this subtree as a balanced one if it became too tall for its
+	 * size. Insertions in sorted order push elements down long paths, and
+	 * deletions leave tall subtrees with few elements; as in a scapegoat
+	 * tree, rebuilding the subtrees found too tall on the way back from an
+	 * insertion or deletion keeps the height of the tree in O(log n). The
+	 * rebuilt nodes are only half full, so the next insertions find room
+	 * without growing the subtree again. The nodes below this one are
+	 * recycled and reused by the new subtree
+	 * 
+	 * @best-case O(log n)
+	 * @worst-case O(n)
+	 */
+	@SuppressWarnings("unchecked")
+	private void balance() {
+		if (isTooTall(size, height, children.length)) {
+			T[] array = (T[]) new Object[size];
+			copyTo(array, 0);
+			recycleChildren();
+			fill(array, 0, array.length, balancedFanOut(children.length));
+		}
+	}
+
+	/**
+	 * Removes all the children of this node, keeping them, and all the nodes
+	 * below them, for newNode to reuse
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(n)
+	 */
+	private void recycleChildren() {
+		for (int i = 0; i < numChildren; i++)
+			recycleSubtree(children[i]);
+		clearChildren();
+	}
+
+	/**
+	 * Makes this node, without children, the root of the subtree with the
+	 * sorted elements array[from..to[, split among its children as build
+	 * does, with the nodes taken by newNode
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(n)
+	 * 
+	 * @param array
+	 *            the sorted elements
+	 * @param from
+	 *            the position of the first element
+	 * @param to
+	 *            the position after the last element
+	 * @param fanOut
+	 *            the maximum number of children to use on each node
+	 */
+	private void fill(T[] array, int from, int to, int fanOut) {
+		data = array[from];
+
+		int rest = to - from - 1;
+		int nChildren = Math.min(fanOut, rest);
+		int start = from + 1;
+		for (int i = 0; i < nChildren; i++) {
+			int end = start + rest / nChildren + (i < rest % nChildren ? 1 : 0);
+			ArrayNTree<T> child = newNode(array[start]);
+			child.fill(array, start, end, fanOut);
+			children[i] = child;
+			start = end;
+		}
+		numChildren = nChildren;
+		updateCounters();
+	}
+
+	/**
+	 * Verifies if a subtree is too tall for its number of elements: a subtree
+	 * of height h needs at least capacity^((h - 1) / 2) elements, so it may
+	 * grow up to about twice as tall as a balanced one before it is rebuilt.
+	 * Trees of capacity 1 are lists, and are never too tall. The Int, Long,
+	 * off-heap and persistent trees balance by the same rule, to keep the
+	 * same structure
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 * 
+	 * @param size
+	 *            the number of elements of the subtree
+	 * @param height
+	 *            the height of the subtree
+	 * @param capacity
+	 *            the capacity of its nodes
+	 * @return true iff the subtree must be rebuilt
+	 */
+	static boolean isTooTall(int size, int height, int capacity) {
+		if (capacity == 1)
+			return false;
+
+		long needed = 1;
+		for (int i = (height - 1) / 2; i > 0; i--) {
+			needed *= capacity;
+			if (needed > size)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The number of children of each node of a subtree rebuilt by balance:
+	 * half its capacity, but at least 2. A subtree of that fan-out is never
+	 * too tall, since it is at least the square root of the capacity
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 * 
+	 * @param capacity
+	 *            the capacity of the nodes
+	 * @return the fan-out of a rebuilt subtree
+	 */
+	static int balancedFanOut(int capacity) {
+		return Math.max(2, (capacity + 1) / 2);
+	}
+
+	/**
+	 * Insert all the given elements into the tree keeping the invariant. The
+	 * batch is sorted once; small batches are then inserted one by one, while
+	 * large ones are merged with the tree's elements and the tree is rebuilt
+	 * in a single pass
+	 * 
+	 * @best-case O(m log m + m log n)
+	 * @worst-case O(m log m + n)
+	 * 
+	 * @param elems
+	 *            the elements to be inserted
+	 * @return true iff the tree changed
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean insertAll(Collection<? extends T> elems) {
+		T[] batch = sortedArray(elems, true, false, shared.comparator);
+
+		if (!isWorthMerging(batch.length)) {
+			int prevSize = size;
+			for (T elem : batch)
+				insert(elem);
+			return size != prevSize;
+		}
+
+		T[] current = toArray((T[]) new Object[size]);
+		T[] result = (T[]) new Object[current.length + batch.length];
+		int i = 0, j = 0, n = 0;
+		while (i < current.length || j < batch.length) {
+			int cmp = i == current.length ? 1
+					: j == batch.length ? -1
+							: compare(current[i], batch[j]);
+			if (cmp <= 0)
+				result[n++] = current[i++];
+			else
+				result[n++] = batch[j++];
+			if (cmp == 0)
+				j++;
+		}
+
+		return rebuild(result, n);
+	}
+
+	/**
+	 * Delete all the given elements from the tree keeping the invariant. The
+	 * batch is sorted once; small batches are then deleted one by one, while
+	 * large ones are merged with the tree's elements and the tree is rebuilt
+	 * in a single pass
+	 * 
+	 * @best-case O(m log m + m log n)
+	 * @worst-case O(m log m + n)
+	 * 
+	 * @param elems
+	 *            the elements to be deleted
+	 * @return true iff the tree changed
+	 */
+	public boolean deleteAll(Collection<? extends T> elems) {
+		T[] batch = sortedArray(elems, true, false, shared.comparator);
+
+		if (!isWorthMerging(batch.length)) {
+			int prevSize = size;
+			for (T elem : batch)
+				delete(elem);
+			return size != prevSize;
+		}
+
+		return retain(batch, false);
+	}
+
+	/**
+	 * Delete from the tree all the elements not in the given collection,
+	 * keeping the invariant. The tree's elements are merged with the sorted
+	 * batch and the tree is rebuilt in a single pass
+	 * 
+	 * @best-case O(m log m + n)
+	 * @worst-case O(m log m + n)
+	 * 
+	 * @param elems
+	 *            the elements to be kept
+	 * @return true iff the tree changed
+	 */
+	public boolean retainAll(Collection<? extends T> elems) {
+		return retain(sortedArray(elems, true, false, shared.comparator),
+				true);
+	}
+
+	/**
+	 * Keeps the tree's elements that are (or are not) in the sorted batch,
+	 * rebuilding the tree if any element is removed
+	 * 
+	 * @best-case O(n + m)
+	 * @worst-case O(n + m)
+	 * 
+	 * @param batch
+	 *            the sorted elements, without repetitions
+	 * @param inBatch
+	 *            true to keep the elements in the batch, false to keep the
+	 *            others
+	 * @return true iff the tree changed
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean retain(T[] batch, boolean inBatch) {
+		T[] current = toArray((T[]) new Object[size]);
+		int j = 0, n = 0;
+		for (int i = 0; i < current.length; i++) {
+			while (j < batch.length && compare(batch[j], current[i]) < 0)
+				j++;
+			boolean found = j < batch.length
+					&& compare(batch[j], current[i]) == 0;
+			if (found == inBatch)
+				current[n++] = current[i];
+		}
+
+		return rebuild(current, n);
+	}
+
+	/**
+	 * Verifies if a batch of m elements is better merged with the whole tree
+	 * than applied one element at a time, ie, if m log n is not below n
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 * 
+	 * @param m
+	 *            the size of the batch
+	 * @return true iff the batch should be merged
+	 */
+	private boolean isWorthMerging(int m) {
+		int log = 32 - Integer.numberOfLeadingZeros(size);
+		return (long) m * log >= size;
+	}
+
+	/**
+	 * Replaces the contents of this tree by a balanced tree with the given
+	 * elements, unless they are the same as the tree's. The nodes of the old
+	 * tree are reused by the new one, and those left over are kept for later
+	 * insertions, up to MAX_FREE_NODES
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(n)
+	 * 
+	 * @param array
+	 *            the sorted elements, without repetitions, in array[0..n[
+	 * @param n
+	 *            the number of elements
+	 * @return true iff the tree changed
+	 */
+	private boolean rebuild(T[] array, int n) {
+		if (n == size)
+			return false;
+
+		recycleChildren();
+		if (n == 0) {
+			data = null;
+			updateCounters();
+		} else {
+			fill(array, 0, n, children.length);
+		}
+		while (shared.numFree > MAX_FREE_NODES) {
+			shared.free = shared.free.children[0];
+			shared.numFree--;
+		}
+		shared.modCount++;
+
+		return true;
+	}
+
+	/**
+	 * Is this tree equal to another object? Two NTrees are equal iff they have
+	 * the same values, in the same order, as told by the values' equals
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(n)
+	 * 
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (other == null) {
+			return false;
+		}
+		if (other instanceof ArrayNTree) {
+			return equalTree((ArrayNTree<T>) other);
+		}
+		return false;
+	}
+
+	// same elements in the same order, as told by their equals, so trees of
+	// unrelated types or orders are never compared by a comparator
+	private boolean equalTree(ArrayNTree<T> other) {
+		if (this.size() != other.size())
+			return false;
+
+		Iterator<T> it = other.iterator();
+		for (T elem : this)
+			if (!Objects.equals(elem, it.next()))
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * The hash code of this tree, the same as the one of its list of elements
+	 * 
+	 * @best-case O(n)
+	 * @worst-case O(n)
+	 * 
+	 */
+	public int hashCode() {
+		int hash = 1;
+		for (T elem : this)
+			hash = 31 * hash + Objects.hashCode(elem);
+		return hash;
+	}
+
+	/**
+	 * Convert tree into list. The list has the elements accordingly to the
+	 * tree's prefix traversal, ie, the elements will be sequenced by increasing
+	 * order
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(n)
+	 * 
+	 * @returns the list with the tree's elements
+	 */
+	public List<T> toList() {
+		List<T> list = new ArrayList<>(size);
+		addTo(list);
+		return list;
+	}
+
+	/**
+	 * Adds the elements of this subtree to the list in a prefix traversal
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(n)
+	 * 
+	 * @param list
+	 *            the list where the elements are added
+	 */
+	private void addTo(List<T> list) {
+		if (!isEmpty()) {
+			list.add(data);
+			for (int i = 0; i < numChildren; i++)
+				children[i].addTo(list);
+		}
+	}
+
+	/**
+	 * Gives the elements of this subtree to the action in a prefix traversal
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(n)
+	 * 
+	 * @param action
+	 *            the action to apply to each element
+	 */
+	private void forEachIn(Consumer<? super T> action) {
+		action.accept(data);
+		for (int i = 0; i < numChildren; i++)
+			children[i].forEachIn(action);
 	}
 
 	/**
-	 * Is this tree equal to another object? Two NTrees are equal iff they have
-	 * the same values
+	 * Copy the tree's elements into an array, by increasing order. If the
+	 * given array is too small, a new array of the same type is allocated; if
+	 * it is larger, the position after the last element is set to null
 	 * 
 	 * @best-case O(1)
 	 * @worst-case O(n)
 	 * 
+	 * @param array
+	 *            the array where the elements are to be stored
+	 * @returns the array with the tree's elements
 	 */
 	@SuppressWarnings("unchecked")
-	public boolean equals(Object other) {
-		if (this == other) {
-			return true;
-		}
-		if (other == null) {
-			return false;
-		}
-		if (other instanceof ArrayNTree) {
-			return equalTree((ArrayNTree<T>) other);
+	public T[] toArray(T[] array) {
+		if (array.length < size)
+			array = (T[]) Array.newInstance(
+					array.getClass().getComponentType(), size);
+
+		copyTo(array, 0);
+		if (array.length > size)
+			array[size] = null;
+
+		return array;
+	}
+
+	/**
+	 * Copies the elements of this subtree to the array in a prefix traversal
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(n)
+	 * 
+	 * @param array
+	 *            the array where the elements are copied
+	 * @param pos
+	 *            the position of the first element
+	 * @return the position after the last element copied
+	 */
+	private int copyTo(Object[] array, int pos) {
+		if (!isEmpty()) {
+			array[pos++] = data;
+			for (int i = 0; i < numChildren; i++)
+				pos = children[i].copyTo(array, pos);
 		}
-		return false;
+		return pos;
 	}
 
-	private boolean equalTree(ArrayNTree<T> other) {
+	/**
+	 * Convert tree into list as toList does, copying the subtrees of more
+	 * than threshold elements in parallel, in the common fork/join pool. As
+	 * the cached sizes tell where each subtree goes, every part is copied
+	 * straight into its place. The tree must not change meanwhile
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(n / p), for p processors
+	 * 
+	 * @param threshold
+	 *            The number of elements below which a subtree is copied
+	 *            sequentially
+	 * @throws IllegalArgumentException
+	 *             if threshold is not positive
+	 * @returns the fixed-size list with the tree's elements
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> parallelToList(int threshold) {
+		if (threshold < 1)
+			throw new IllegalArgumentException("threshold must be positive");
+
+		T[] array = (T[]) new Object[size];
+		if (size > threshold)
+			ForkJoinPool.commonPool().invoke(
+					new CopyTask<>(this, array, 0, threshold));
+		else
+			copyTo(array, 0);
+
+		return Arrays.asList(array);
+	}
 
-		if (this.size() != other.size() || this.data != other.data) {
-			return false;
+	/**
+	 * Convert tree into list in parallel, with the default threshold
+	 * 
+	 * @see #parallelToList(int)
+	 */
+	public List<T> parallelToList() {
+		return parallelToList(DEFAULT_SEQUENTIAL_THRESHOLD);
+	}
+
+	/**
+	 * Copies the elements of a subtree to the array from a given position,
+	 * with the children of more than threshold elements copied in parallel
+	 */
+	private static class CopyTask<T> extends
+			RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ArrayNTree<T> node;
+		private final Object[] array;
+		private final int pos, threshold;
+
+		CopyTask(ArrayNTree<T> node, Object[] array, int pos, int threshold) {
+			this.node = node;
+			this.array = array;
+			this.pos = pos;
+			this.threshold = threshold;
 		}
 
-		List<T> tree1 = this.toList();
-		List<T> tree2 = other.toList();
+		@Override
+		protected void compute() {
+			if (node.size <= threshold) {
+				node.copyTo(array, pos);
+				return;
+			}
 
-		return tree1.equals(tree2);
+			array[pos] = node.data;
+			CopyTask<?>[] tasks = new CopyTask<?>[node.numChildren];
+			for (int i = 0; i < node.numChildren; i++)
+				tasks[i] = new CopyTask<>(node.children[i], array,
+						pos + node.offsets[i], threshold);
+			invokeAll(tasks);
+		}
 	}
 
 	/**
-	 * Convert tree into list. The list has the elements accordingly to the
-	 * tree's prefix traversal, ie, the elements will be sequenced by increasing
-	 * order
+	 * Combines the elements of the tree, in increasing order, reducing the
+	 * subtrees of more than threshold elements in parallel, in the common
+	 * fork/join pool. Each part starts from the identity, and the parts are
+	 * combined in order, so the combiner must be associative. The tree must
+	 * not change meanwhile
 	 * 
 	 * @best-case O(1)
-	 * @worst-case O(n)
+	 * @worst-case O(n / p), for p processors
 	 * 
-	 * @returns the list with the tree's elements
+	 * @param identity
+	 *            The initial value of each part
+	 * @param accumulator
+	 *            Adds an element to a partial result
+	 * @param combiner
+	 *            Joins two partial results, the first one of the smaller
+	 *            elements
+	 * @param threshold
+	 *            The number of elements below which a subtree is reduced
+	 *            sequentially
+	 * @throws IllegalArgumentException
+	 *             if threshold is not positive
+	 * @return the result of combining all the elements
 	 */
-	public List<T> toList() {
-		List<T> list = new ArrayList<>();
+	public <R> R parallelReduce(R identity,
+			BiFunction<R, ? super T, R> accumulator,
+			BinaryOperator<R> combiner, int threshold) {
+		if (threshold < 1)
+			throw new IllegalArgumentException("threshold must be positive");
+		if (isEmpty())
+			return identity;
 
-		if (!isEmpty()) {
-			list.add(data);
-			if (!isLeaf()) {
-				for (int i = 0; i < children.length; i++) {
-					if (children[i] != null) {
-						list.addAll(children[i].toList());
-					}
-				}
+		return ForkJoinPool.commonPool().invoke(
+				new ReduceTask<>(this, identity, accumulator, combiner,
+						threshold));
+	}
+
+	/**
+	 * Reduces the elements of a subtree, with the children of more than
+	 * threshold elements reduced in parallel
+	 */
+	private static class ReduceTask<T, R> extends
+			RecursiveTask<R> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ArrayNTree<T> node;
+		private final R identity;
+		private final BiFunction<R, ? super T, R> accumulator;
+		private final BinaryOperator<R> combiner;
+		private final int threshold;
+
+		ReduceTask(ArrayNTree<T> node, R identity,
+				BiFunction<R, ? super T, R> accumulator,
+				BinaryOperator<R> combiner, int threshold) {
+			this.node = node;
+			this.identity = identity;
+			this.accumulator = accumulator;
+			this.combiner = combiner;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected R compute() {
+			if (node.size <= threshold) {
+				R result = identity;
+				for (T elem : node)
+					result = accumulator.apply(result, elem);
+				return result;
 			}
+
+			List<ReduceTask<T, R>> tasks = new ArrayList<>(node.numChildren);
+			for (int i = 0; i < node.numChildren; i++)
+				tasks.add(new ReduceTask<>(node.children[i], identity,
+						accumulator, combiner, threshold));
+			invokeAll(tasks);
+
+			R result = accumulator.apply(identity, node.data);
+			for (ReduceTask<T, R> task : tasks)
+				result = combiner.apply(result, task.join());
+			return result;
 		}
-		Collections.sort(list, (a, b) -> a.compareTo(b));
-		return list;
 	}
 
 	/**
-	 * Clones a new tree with the same elements of this
+	 * Clones a new tree with the same elements of this. Every node is copied,
+	 * so changing either tree does not change the other; to share the nodes
+	 * between versions, use a PersistentNTree
 	 * 
 	 * @best-case O(1)
-	 * @worst-case O(1)
+	 * @worst-case O(n)
 	 * 
 	 * @returns a new tree with the same elements of this
 	 */
 	public ArrayNTree<T> clone() {
-		ArrayNTree<T> result = new ArrayNTree<>(children.length);
+		return copy(new Shared<>(shared.comparator));
+	}
+
+	// a copy of this subtree, for the tree with the given state
+	private ArrayNTree<T> copy(Shared<T> tree) {
+		ArrayNTree<T> result = new ArrayNTree<>(tree, children.length);
 
 		result.data = data;
-		result.children = children;
+		for (int i = 0; i < numChildren; i++)
+			result.children[i] = children[i].copy(tree);
+		result.numChildren = numChildren;
+		result.offsets = offsets == null ? null : offsets.clone();
+		result.keys = keys == null ? null : keys.clone();
+		result.size = size;
+		result.height = height;
+		result.leaves = leaves;
 
 		return result;
 	}
 
-	public String toString() {
-		if (isEmpty())
-			return "[]";
+	/**
+	 * Writes the tree to a stream in a compact binary format:
+	 * 
+	 * magic | version | capacity | size | nodes
+	 * 
+	 * where each node, in prefix order, is its number of children followed by
+	 * its element. Numbers are varints, and elements are written by the
+	 * codec's writeDelta, which may encode each one as the difference to the
+	 * previous element. The stream is flushed, but not closed
+	 * 
+	 * @best-case O(n)
+	 * @worst-case O(n)
+	 * 
+	 * @param out
+	 *            the stream where the tree is written
+	 * @param codec
+	 *            the encoding of the elements
+	 * @throws IOException
+	 *             if the stream cannot be written
+	 */
+	public void writeTo(OutputStream out, KeyCodec<T> codec)
+			throws IOException {
+		DataOutputStream stream = new DataOutputStream(
+				new BufferedOutputStream(out));
+		stream.writeInt(STREAM_MAGIC);
+		stream.writeByte(STREAM_VERSION);
+		Varint.write(stream, children.length);
+		Varint.write(stream, size);
+		if (!isEmpty())
+			writeNode(stream, codec, null);
+		stream.flush();
+	}
 
-		if (isLeaf())
-			return "[" + data + "]";
+	/**
+	 * Writes the tree to a channel, in the format of writeTo(OutputStream)
+	 * 
+	 * @best-case O(n)
+	 * @worst-case O(n)
+	 * 
+	 * @param channel
+	 *            the channel where the tree is written
+	 * @param codec
+	 *            the encoding of the elements
+	 * @throws IOException
+	 *             if the channel cannot be written
+	 */
+	public void writeTo(WritableByteChannel channel, KeyCodec<T> codec)
+			throws IOException {
+		writeTo(Channels.newOutputStream(channel), codec);
+	}
 
-		StringBuilder sb = new StringBuilder();
-		sb.append("[" + data + ":");
+	/**
+	 * Writes the nodes of this subtree in prefix order
+	 * 
+	 * @param previous
+	 *            the element written before this subtree, or null
+	 * @return the last element written
+	 */
+	private T writeNode(DataOutput out, KeyCodec<T> codec, T previous)
+			throws IOException {
+		Varint.write(out, numChildren);
+		codec.writeDelta(out, previous, data);
+
+		T last = data;
+		for (int i = 0; i < numChildren; i++)
+			last = children[i].writeNode(out, codec, last);
+		return last;
+	}
+
+	/**
+	 * Reads a tree written by writeTo, rebuilding its nodes as they are read.
+	 * Nothing is read after the tree, so the stream should be buffered
+	 * 
+	 * @best-case O(n)
+	 * @worst-case O(n)
+	 * 
+	 * @param in
+	 *            the stream with the tree
+	 * @param codec
+	 *            the encoding of the elements, as when the tree was written
+	 * @throws IOException
+	 *             if the stream cannot be read or does not keep a valid tree
+	 * @return the tree read, ordered by the natural ordering of its elements
+	 */
+	public static <T extends Comparable<T>> ArrayNTree<T> readFrom(
+			InputStream in, KeyCodec<T> codec) throws IOException {
+		return readFrom(in, codec, null);
+	}
+
+	/**
+	 * Reads a tree written by writeTo, ordered by the given comparator
+	 * 
+	 * @best-case O(n)
+	 * @worst-case O(n)
+	 * 
+	 * @param in
+	 *            the stream with the tree
+	 * @param codec
+	 *            the encoding of the elements, as when the tree was written
+	 * @param comparator
+	 *            the ordering of the elements, as when the tree was written,
+	 *            or null for their natural ordering
+	 * @throws IOException
+	 *             if the stream cannot be read or does not keep a valid tree
+	 * @return the tree read
+	 */
+	public static <T> ArrayNTree<T> readFrom(InputStream in,
+			KeyCodec<T> codec, Comparator<? super T> comparator)
+			throws IOException {
+		DataInputStream stream = new DataInputStream(in);
+		if (stream.readInt() != STREAM_MAGIC
+				|| stream.readUnsignedByte() != STREAM_VERSION)
+			throw new IOException("not a serialized tree");
+
+		int capacity = readCount(stream, Integer.MAX_VALUE);
+		int size = readCount(stream, Integer.MAX_VALUE);
+		if (capacity < 1)
+			throw new IOException("corrupted tree: capacity " + capacity);
+		ArrayNTree<T> empty = new ArrayNTree<>(capacity, comparator);
+		if (size == 0)
+			return empty;
+
+		// the path from the root to the last node read, and how many
+		// children of each of those nodes are still to be read
+		ArrayNTree<T>[] path = newNodes(16);
+		int[] missing = new int[16];
+		int depth = 0;
+
+		ArrayNTree<T> root = null;
+		T previous = null;
+		for (int i = 0; i < size; i++) {
+			int nChildren = readCount(stream, capacity);
+			T elem = codec.readDelta(stream, previous);
+			if (previous != null && empty.compare(previous, elem) >= 0)
+				throw new IOException("corrupted tree: elements out of order");
+			previous = elem;
+
+			ArrayNTree<T> node = new ArrayNTree<>(empty.shared, elem, capacity);
+			if (depth > 0) {
+				ArrayNTree<T> parent = path[depth - 1];
+				parent.children[parent.numChildren++] = node;
+				missing[depth - 1]--;
+			} else if (root == null) {
+				root = node;
+			} else {
+				throw new IOException("corrupted tree: too many nodes");
+			}
+
+			if (depth == path.length) {
+				path = Arrays.copyOf(path, 2 * depth);
+				missing = Arrays.copyOf(missing, 2 * depth);
+			}
+			path[depth] = node;
+			missing[depth++] = nChildren;
+
+			// the subtrees just completed
+			while (depth > 0 && missing[depth - 1] == 0)
+				path[--depth].updateCounters();
+		}
+
+		if (depth > 0)
+			throw new IOException("corrupted tree: missing nodes");
+		return root;
+	}
+
+	/**
+	 * Reads a tree written by writeTo from a channel. Bytes after the tree
+	 * may be read as well
+	 * 
+	 * @best-case O(n)
+	 * @worst-case O(n)
+	 * 
+	 * @param channel
+	 *            the channel with the tree
+	 * @param codec
+	 *            the encoding of the elements, as when the tree was written
+	 * @throws IOException
+	 *             if the channel cannot be read or does not keep a valid tree
+	 * @return the tree read, ordered by the natural ordering of its elements
+	 */
+	public static <T extends Comparable<T>> ArrayNTree<T> readFrom(
+			ReadableByteChannel channel, KeyCodec<T> codec)
+			throws IOException {
+		return readFrom(channel, codec, null);
+	}
+
+	/**
+	 * Reads a tree written by writeTo from a channel, ordered by the given
+	 * comparator. Bytes after the tree may be read as well
+	 * 
+	 * @best-case O(n)
+	 * @worst-case O(n)
+	 * 
+	 * @param channel
+	 *            the channel with the tree
+	 * @param codec
+	 *            the encoding of the elements, as when the tree was written
+	 * @param comparator
+	 *            the ordering of the elements, as when the tree was written,
+	 *            or null for their natural ordering
+	 * @throws IOException
+	 *             if the channel cannot be read or does not keep a valid tree
+	 * @return the tree read
+	 */
+	public static <T> ArrayNTree<T> readFrom(ReadableByteChannel channel,
+			KeyCodec<T> codec, Comparator<? super T> comparator)
+			throws IOException {
+		return readFrom(new BufferedInputStream(
+				Channels.newInputStream(channel)), codec, comparator);
+	}
+
+	private static int readCount(DataInput in, int max) throws IOException {
+		long count = Varint.read(in);
+		if (count < 0 || count > max)
+			throw new IOException("corrupted tree: count " + count);
+		return (int) count;
+	}
 
-		for (NTree<T> brt : children)
-			if (brt != null)
-				sb.append(brt.toString());
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		appendTo(sb);
+		return sb.toString();
+	}
 
-		return sb.append("]").toString();
+	/**
+	 * Appends the nested representation of this subtree, eg [1:[2][3:[4]]]
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(n)
+	 * 
+	 * @param sb
+	 *            the builder where the subtree is appended
+	 */
+	private void appendTo(StringBuilder sb) {
+		sb.append('[');
+		if (!isEmpty()) {
+			sb.append(data);
+			if (numChildren > 0) {
+				sb.append(':');
+				for (int i = 0; i < numChildren; i++)
+					children[i].appendTo(sb);
+			}
+		}
+		sb.append(']');
 	}
 
 	// more detailed information about tree structure
 	public String info() {
-		return this + ", size: " + size() + ", height: " + height()
-				+ ", nLeaves: " + countLeaves();
+		StringBuilder sb = new StringBuilder();
+		appendTo(sb);
+		return sb.append(", size: ").append(size).append(", height: ")
+				.append(height).append(", nLeaves: ").append(leaves)
+				.toString();
 	}
 
 	/**
 	 * @returns an iterator traversing elements in a increasing order
 	 */
 	public Iterator<T> iterator() {
-		return new ArrayNTreeIterator(this);
+		return new ArrayNTreeIterator(this, null, true, null, true);
+	}
+
+	/**
+	 * An iterator over the elements between two bounds, in increasing order.
+	 * Only the nodes on the path to the first element and those holding the
+	 * elements returned are visited
+	 * 
+	 * @best-case O(log n)
+	 * @worst-case O(log n + k), for k elements returned
+	 * 
+	 * @param from
+	 *            the lower bound, or null if there is none
+	 * @param fromInclusive
+	 *            true if the lower bound may be returned
+	 * @param to
+	 *            the upper bound, or null if there is none
+	 * @param toInclusive
+	 *            true if the upper bound may be returned
+	 * @returns an iterator traversing the elements in the range
+	 */
+	public Iterator<T> rangeIterator(T from, boolean fromInclusive, T to,
+			boolean toInclusive) {
+		return new ArrayNTreeIterator(this, from, fromInclusive, to,
+				toInclusive);
+	}
+
+	/**
+	 * A spliterator over the elements in increasing order. It splits along
+	 * the children of the nodes, so each part is a sequence of whole
+	 * subtrees whose size is known
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 * 
+	 * @returns a SORTED, DISTINCT, ORDERED, SIZED and SUBSIZED spliterator
+	 */
+	public Spliterator<T> spliterator() {
+		return new ArrayNTreeSpliterator(this, !isEmpty(), 0, numChildren);
+	}
+
+	/**
+	 * The number of elements between two bounds, from the cached sizes of
+	 * the subtrees on the paths to both bounds
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 * 
+	 * @param from
+	 *            the lower bound, or null if there is none
+	 * @param fromInclusive
+	 *            true if the lower bound is to be counted
+	 * @param to
+	 *            the upper bound, or null if there is none
+	 * @param toInclusive
+	 *            true if the upper bound is to be counted
+	 * @return the number of elements in range
+	 */
+	public int countInRange(T from, boolean fromInclusive, T to,
+			boolean toInclusive) {
+		int upTo = to == null ? size : countBelow(to, toInclusive);
+		int below = from == null ? 0 : countBelow(from, !fromInclusive);
+		return Math.max(0, upTo - below);
+	}
+
+	/**
+	 * The number of elements of the tree less than the given one, ie, the
+	 * position elem has, or would have, in the tree's prefix traversal
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 * 
+	 * @param elem
+	 *            the element to be compared
+	 * @return the number of elements < elem
+	 */
+	public int rank(T elem) {
+		return countBelow(elem, false);
+	}
+
+	/**
+	 * The k-th smallest element of the tree, counting from zero. Each node
+	 * of the path is chosen by a binary search on the offsets of the
+	 * children of its parent
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 * 
+	 * @param k
+	 *            the position of the element in the tree's prefix traversal
+	 * @throws IndexOutOfBoundsException
+	 *             if k < 0 or k >= size()
+	 * @return the element with rank k
+	 */
+	public T select(int k) {
+		if (k < 0 || k >= size)
+			throw new IndexOutOfBoundsException("rank: " + k + ", size: "
+					+ size);
+
+		ArrayNTree<T> node = this;
+		while (k > 0) {
+			// the last child whose subtree starts at k or before
+			int low = 1;
+			int high = node.numChildren - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (node.offsets[mid] <= k)
+					low = mid + 1;
+				else
+					high = mid - 1;
+			}
+
+			k -= node.offsets[high];
+			node = node.children[high];
+		}
+
+		return node.data;
+	}
+
+	/**
+	 * The number of elements less than (or equal to) the given one
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(log n), a binary search on each node of the path
+	 * 
+	 * @param elem
+	 *            the element to be compared
+	 * @param inclusive
+	 *            true if elem itself is to be counted
+	 * @return the number of elements before elem
+	 */
+	private int countBelow(T elem, boolean inclusive) {
+		int count = 0;
+		ArrayNTree<T> node = isEmpty() ? null : this;
+
+		while (node != null) {
+			int cmp = compare(node.data, elem);
+			if (cmp > 0 || (cmp == 0 && !inclusive))
+				break;
+
+			// the node and the children before the one on the path
+			int i = node.findChild(elem, inclusive);
+			if (i < 0)
+				return count + 1;
+			count += node.offsets[i];
+			node = node.children[i];
+		}
+
+		return count;
 	}
 
+	/**
+	 * Lazy prefix traversal of the tree. Instead of copying the elements, it
+	 * keeps the path from the root to the next node to visit, together with
+	 * the next child to visit on each of those nodes
+	 */
 	private class ArrayNTreeIterator implements Iterator<T> {
 
-		private List<T> list;
-		private int index;
+		private ArrayNTree<T> tree;
+		private ArrayNTree<T>[] nodes;
+		private int[] nextChild;
+		private int depth;
+		private int expectedModCount;
+		private final T to;
+		private final boolean toInclusive;
+
+		public ArrayNTreeIterator(ArrayNTree<T> arrayNTree, T from,
+				boolean fromInclusive, T to, boolean toInclusive) {
+			tree = arrayNTree;
+			expectedModCount = tree.shared.modCount;
+			this.to = to;
+			this.toInclusive = toInclusive;
+
+			int maxDepth = Math.max(1, tree.height);
+			nodes = newNodes(maxDepth);
+			nextChild = new int[maxDepth];
+			depth = 0;
+
+			if (!tree.isEmpty()) {
+				if (from == null)
+					push(tree);
+				else
+					seek(from, fromInclusive);
+			}
+			checkUpperBound();
+		}
 
-		public ArrayNTreeIterator(ArrayNTree<T> arrayNTree) {
-			list = arrayNTree.toList();
+		/**
+		 * Goes down to the first element in range, leaving on the stack the
+		 * nodes before it, with the children before the path skipped
+		 */
+		private void seek(T from, boolean fromInclusive) {
+			ArrayNTree<T> node = tree;
+
+			while (node != null) {
+				push(node);
+				int cmp = compare(node.data, from);
+				if (cmp > 0 || (cmp == 0 && fromInclusive))
+					return;
+
+				int i = node.findChild(from, true);
+				nextChild[depth - 1] = i + 1;
+				node = i < 0 ? null : node.children[i];
+			}
 
-			index = 0;
+			// every element on the path is before the range
+			advance();
 		}
 
 		@Override
 		public boolean hasNext() {
-			return index < list.size();
+			return depth > 0;
 		}
 
 		@Override
 		public T next() {
-			if (this.hasNext()) {
-				T element = list.get(index);
-				index++;
-				return element;
+			if (tree.shared.modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+
+			if (!this.hasNext())
+				throw new NoSuchElementException();
+
+			// the top of the stack is always a node not yet visited
+			T element = nodes[depth - 1].data;
+			advance();
+			checkUpperBound();
+
+			return element;
+		}
+
+		/**
+		 * Replaces the top of the stack, already visited, by the next node
+		 * to visit
+		 */
+		private void advance() {
+			while (depth > 0) {
+				ArrayNTree<T> node = nodes[depth - 1];
+				int i = nextChild[depth - 1];
+				if (i < node.numChildren) {
+					nextChild[depth - 1]++;
+					push(node.children[i]);
+					return;
+				}
+				depth--;
+				nodes[depth] = null;
 			}
+		}
 
-			throw new NoSuchElementException();
+		// ends the traversal once the next element is beyond the range
+		private void checkUpperBound() {
+			if (depth > 0 && to != null) {
+				int cmp = compare(nodes[depth - 1].data, to);
+				if (cmp > 0 || (cmp == 0 && !toInclusive))
+					depth = 0;
+			}
 		}
 
 		@Override
 		public void remove() {
 			throw new UnsupportedOperationException();
 		}
+
+		private void push(ArrayNTree<T> node) {
+			if (depth == nodes.length) {
+				nodes = Arrays.copyOf(nodes, 2 * depth);
+				nextChild = Arrays.copyOf(nextChild, 2 * depth);
+			}
+			nodes[depth] = node;
+			nextChild[depth] = 0;
+			depth++;
+		}
+	}
+
+	/**
+	 * Splittable traversal of the elements of a node (if not yet visited)
+	 * followed by those of the subtrees of children[first..last[. Splitting
+	 * gives away the node and the first half of those children, or, if only
+	 * one child is left, goes down into it
+	 */
+	private class ArrayNTreeSpliterator implements Spliterator<T> {
+
+		private ArrayNTree<T> node;
+		private boolean withData;
+		private int first;
+		private int last;
+		// the elements not yet visited
+		private long remaining;
+		// the traversal of children[first], once it has started
+		private Iterator<T> current;
+		private final int expectedModCount;
+
+		public ArrayNTreeSpliterator(ArrayNTree<T> node, boolean withData,
+				int first, int last) {
+			this.node = node;
+			this.withData = withData;
+			this.first = first;
+			this.last = last;
+			remaining = (withData ? 1 : 0) + sizeOfChildren(first, last);
+			expectedModCount = shared.modCount;
+		}
+
+		// the number of elements of the subtrees of children[from..to[
+		private int sizeOfChildren(int from, int to) {
+			if (from == to)
+				return 0;
+			int end = to == node.numChildren ? node.size : node.offsets[to];
+			return end - node.offsets[from];
+		}
+
+		@Override
+		public Spliterator<T> trySplit() {
+			if (current != null)
+				return null;
+
+			// one child left and nothing before it: go down into it
+			while (!withData && last - first == 1) {
+				node = node.children[first];
+				withData = true;
+				first = 0;
+				last = node.numChildren;
+			}
+
+			if (last - first == 0)
+				return null;
+
+			int mid = last - first == 1 ? first : (first + last) >>> 1;
+			ArrayNTreeSpliterator prefix = new ArrayNTreeSpliterator(node,
+					withData, first, mid);
+			withData = false;
+			first = mid;
+			remaining -= prefix.remaining;
+			return prefix;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super T> action) {
+			checkForComodification();
+
+			if (withData) {
+				withData = false;
+				remaining--;
+				action.accept(node.data);
+				return true;
+			}
+
+			while (first < last) {
+				if (current == null)
+					current = node.children[first].iterator();
+				if (current.hasNext()) {
+					remaining--;
+					action.accept(current.next());
+					return true;
+				}
+				current = null;
+				first++;
+			}
+
+			return false;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super T> action) {
+			checkForComodification();
+
+			if (current != null) {
+				current.forEachRemaining(action);
+				current = null;
+				first++;
+			}
+			if (withData)
+				action.accept(node.data);
+			for (int i = first; i < last; i++)
+				node.children[i].forEachIn(action);
+
+			withData = false;
+			first = last;
+			remaining = 0;
+			checkForComodification();
+		}
+
+		private void checkForComodification() {
+			if (shared.modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+		}
+
+		@Override
+		public long estimateSize() {
+			return remaining;
+		}
+
+		@Override
+		public int characteristics() {
+			return SORTED | DISTINCT | ORDERED | SIZED | SUBSIZED | NONNULL;
+		}
+
+		@Override
+		public Comparator<? super T> getComparator() {
+			return comparator();
+		}
 	}
 
 }
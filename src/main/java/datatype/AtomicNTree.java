@@ -0,0 +1,192 @@
+package main.java.datatype;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * A thread-safe n-tree holding the current version of a PersistentNTree.
+ * Readers take the current version, in O(1), and query it with no locks:
+ * each query, iterator or snapshot sees a single consistent version, which
+ * no writer can change. Writers build a new version from the current one
+ * and publish it with a compare-and-set, retrying if another writer
+ * published first.
+ *
+ * @param <T> The type of elements kept in the n-tree
+ */
+public class AtomicNTree<T extends Comparable<T>> implements NTree<T> {
+
+	private final AtomicReference<PersistentNTree<T>> current;
+
+	/**
+	 * Creates an empty tree
+	 * 
+	 * @param capacity
+	 *            The capacity of each node, ie, the maximum number of direct
+	 *            successors
+	 */
+	public AtomicNTree(int capacity) {
+		this(new PersistentNTree<>(capacity));
+	}
+
+	/**
+	 * Creates a tree whose first version is the given one
+	 * 
+	 * @param initial
+	 *            The first version
+	 */
+	public AtomicNTree(PersistentNTree<T> initial) {
+		current = new AtomicReference<>(initial);
+	}
+
+	/**
+	 * The current version of the tree, which never changes
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 * 
+	 * @return the current version
+	 */
+	public PersistentNTree<T> snapshot() {
+		return current.get();
+	}
+
+	/**
+	 * Publishes the version given by applying the change to the current one,
+	 * retrying with the newer version whenever another writer publishes
+	 * first. The change may thus be applied more than once, so it must have
+	 * no side effects
+	 * 
+	 * @param change
+	 *            Gives the new version from the current one, or the same
+	 *            version if there is nothing to change
+	 * @return true iff a new version was published
+	 */
+	public boolean update(UnaryOperator<PersistentNTree<T>> change) {
+		while (true) {
+			PersistentNTree<T> tree = current.get();
+			PersistentNTree<T> next = change.apply(tree);
+			if (next == tree)
+				return false;
+			if (current.compareAndSet(tree, next))
+				return true;
+		}
+	}
+
+	// changes
+
+	public void insert(T elem) {
+		update(tree -> tree.with(elem));
+	}
+
+	public void delete(T elem) {
+		update(tree -> tree.without(elem));
+	}
+
+	public boolean insertAll(Collection<? extends T> elems) {
+		return update(tree -> tree.withAll(elems));
+	}
+
+	public boolean deleteAll(Collection<? extends T> elems) {
+		return update(tree -> tree.withoutAll(elems));
+	}
+
+	public boolean retainAll(Collection<? extends T> elems) {
+		return update(tree -> tree.retaining(elems));
+	}
+
+	// queries, each on the current version
+
+	public boolean isEmpty() {
+		return current.get().isEmpty();
+	}
+
+	public boolean isLeaf() {
+		return current.get().isLeaf();
+	}
+
+	public int size() {
+		return current.get().size();
+	}
+
+	public int countLeaves() {
+		return current.get().countLeaves();
+	}
+
+	public int height() {
+		return current.get().height();
+	}
+
+	public T min() {
+		return current.get().min();
+	}
+
+	public T max() {
+		return current.get().max();
+	}
+
+	public T floor(T elem) {
+		return current.get().floor(elem);
+	}
+
+	public T ceiling(T elem) {
+		return current.get().ceiling(elem);
+	}
+
+	public T lower(T elem) {
+		return current.get().lower(elem);
+	}
+
+	public T higher(T elem) {
+		return current.get().higher(elem);
+	}
+
+	public int rank(T elem) {
+		return current.get().rank(elem);
+	}
+
+	public T select(int k) {
+		return current.get().select(k);
+	}
+
+	public boolean contains(T elem) {
+		return current.get().contains(elem);
+	}
+
+	public int countInRange(T from, boolean fromInclusive, T to,
+			boolean toInclusive) {
+		return current.get().countInRange(from, fromInclusive, to,
+				toInclusive);
+	}
+
+	public List<T> toList() {
+		return current.get().toList();
+	}
+
+	public T[] toArray(T[] array) {
+		return current.get().toArray(array);
+	}
+
+	public String toString() {
+		return current.get().toString();
+	}
+
+	/**
+	 * @returns an iterator traversing, in a increasing order, the elements
+	 *          of the current version
+	 */
+	public Iterator<T> iterator() {
+		return current.get().iterator();
+	}
+
+	public Spliterator<T> spliterator() {
+		return current.get().spliterator();
+	}
+
+	public Iterator<T> rangeIterator(T from, boolean fromInclusive, T to,
+			boolean toInclusive) {
+		return current.get().rangeIterator(from, fromInclusive, to,
+				toInclusive);
+	}
+
+}
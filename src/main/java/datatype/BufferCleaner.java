@@ -0,0 +1,64 @@
+package main.java.datatype;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Frees the memory of direct and mapped byte buffers at once, rather than
+ * whenever the garbage collector finds them unreachable. It relies on
+ * sun.misc.Unsafe.invokeCleaner, of JDK 9+, found by reflection as the
+ * library is compiled for Java 8; on older JVMs, nothing is freed at once.
+ *
+ * A freed buffer must never be used again: its memory may already belong to
+ * another buffer, or no longer be mapped at all.
+ */
+final class BufferCleaner {
+
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> type = Class.forName("sun.misc.Unsafe");
+			Field field = type.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// before JDK 9, or without the jdk.unsupported module
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	private BufferCleaner() {
+	}
+
+	/**
+	 * Frees the memory of a buffer, if it is direct and this JVM allows it
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 *
+	 * @param buffer
+	 *            The buffer to free, which is never used afterwards
+	 * @return true if the memory was freed, false if it is left to the
+	 *         garbage collector
+	 */
+	static boolean free(ByteBuffer buffer) {
+		if (INVOKE_CLEANER == null || buffer == null || !buffer.isDirect())
+			return false;
+
+		try {
+			INVOKE_CLEANER.invoke(UNSAFE, buffer);
+			return true;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// a slice or a duplicate, which owns no memory
+			return false;
+		}
+	}
+
+}
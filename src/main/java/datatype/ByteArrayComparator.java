@@ -0,0 +1,29 @@
+package main.java.datatype;
+
+import java.util.Comparator;
+
+/**
+ * Orders byte arrays lexicographically, byte by byte as unsigned values,
+ * and a prefix before the longer arrays that start with it. Byte arrays
+ * do not compare by their contents, so n-trees of them need it
+ */
+public final class ByteArrayComparator implements Comparator<byte[]> {
+
+	/**
+	 * The single instance
+	 */
+	public static final ByteArrayComparator UNSIGNED = new ByteArrayComparator();
+
+	private ByteArrayComparator() {
+	}
+
+	public int compare(byte[] a, byte[] b) {
+		int length = Math.min(a.length, b.length);
+		for (int i = 0; i < length; i++) {
+			int c = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+			if (c != 0)
+				return c;
+		}
+		return Integer.compare(a.length, b.length);
+	}
+}
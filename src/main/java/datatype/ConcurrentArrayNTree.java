@@ -0,0 +1,311 @@
+package main.java.datatype;
+
+import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * A thread-safe n-tree backed by an ArrayNTree, guarded by a single
+ * read-write lock.
+ *
+ * Queries answered by the counters of the root (size, isEmpty, isLeaf,
+ * height, countLeaves and min) are optimistic reads, without taking any
+ * lock, and are only repeated under the read lock if a writer changed the
+ * tree meanwhile. Every other query (contains, floor, ceiling, max, rank,
+ * toList, rangeIterator, ...) takes the read lock: the nodes of the tree are
+ * changed and recycled in place by writers, so a path through them is never
+ * followed without the lock. Readers never block each other.
+ *
+ * Insertions and deletions take the write lock, as they may restructure a
+ * whole path of the tree, so writers are serialized: this tree scales with
+ * concurrent readers, not with concurrent writers. Insertions and deletions
+ * first check, under the read lock, if the tree would change at all, so
+ * repeated insertions and deletions of missing elements never take the
+ * write lock.
+ *
+ * Iterators traverse a snapshot of the tree taken when they are created, so
+ * they never throw ConcurrentModificationException.
+ */
+public class ConcurrentArrayNTree<T> implements NTree<T> {
+
+	private final ArrayNTree<T> tree;
+	private final StampedLock lock = new StampedLock();
+
+	/**
+	 * Creates an empty tree
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 *
+	 * @param capacity
+	 *            The capacity of each node, ie, the maximum number of direct
+	 *            successors
+	 */
+	public ConcurrentArrayNTree(int capacity) {
+		this(capacity, null);
+	}
+
+	/**
+	 * Creates an empty tree, ordered by the given comparator
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 *
+	 * @param capacity
+	 *            The capacity of each node, ie, the maximum number of direct
+	 *            successors
+	 * @param comparator
+	 *            The ordering of the elements, or null for their natural
+	 *            ordering
+	 */
+	public ConcurrentArrayNTree(int capacity,
+			Comparator<? super T> comparator) {
+		tree = new ArrayNTree<>(capacity, comparator);
+	}
+
+	/**
+	 * Creates a tree with the elements inside the given list
+	 *
+	 * @best-case O(n)
+	 * @worst-case O(n log n)
+	 *
+	 * @param list
+	 *            The list with all the elements to insert
+	 * @param capacity
+	 *            The capacity of each node, ie, the maximum number of direct
+	 *            successors
+	 */
+	public ConcurrentArrayNTree(List<T> list, int capacity) {
+		this(list, capacity, null);
+	}
+
+	/**
+	 * Creates a tree with the elements inside the given list, ordered by the
+	 * given comparator
+	 *
+	 * @best-case O(n)
+	 * @worst-case O(n log n)
+	 *
+	 * @param list
+	 *            The list with all the elements to insert
+	 * @param capacity
+	 *            The capacity of each node, ie, the maximum number of direct
+	 *            successors
+	 * @param comparator
+	 *            The ordering of the elements, or null for their natural
+	 *            ordering
+	 */
+	public ConcurrentArrayNTree(List<T> list, int capacity,
+			Comparator<? super T> comparator) {
+		tree = ArrayNTree.bulkLoad(list, capacity, 1, true, comparator);
+	}
+
+	/**
+	 * Runs a query as an optimistic read, repeating it under the read lock if
+	 * a writer interfered. Errors raised while the tree was being changed are
+	 * a consequence of reading an inconsistent state and are ignored. Only
+	 * for queries that read a few fields of the root, and never follow a
+	 * reference into the nodes below it
+	 *
+	 * @param query
+	 *            the query to run
+	 * @return the query's result
+	 */
+	private <R> R read(Supplier<R> query) {
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			try {
+				R result = query.get();
+				if (lock.validate(stamp))
+					return result;
+			} catch (RuntimeException e) {
+				if (lock.validate(stamp))
+					throw e;
+			}
+		}
+
+		return locked(query);
+	}
+
+	/**
+	 * Runs a query under the read lock
+	 *
+	 * @param query
+	 *            the query to run
+	 * @return the query's result
+	 */
+	private <R> R locked(Supplier<R> query) {
+		long stamp = lock.readLock();
+		try {
+			return query.get();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public boolean isEmpty() {
+		return read(tree::isEmpty);
+	}
+
+	public boolean isLeaf() {
+		return read(tree::isLeaf);
+	}
+
+	public int size() {
+		return read(tree::size);
+	}
+
+	public int countLeaves() {
+		return read(tree::countLeaves);
+	}
+
+	public int height() {
+		return read(tree::height);
+	}
+
+	public T min() {
+		return read(tree::min);
+	}
+
+	public T max() {
+		return locked(tree::max);
+	}
+
+	public T floor(T elem) {
+		return locked(() -> tree.floor(elem));
+	}
+
+	public T ceiling(T elem) {
+		return locked(() -> tree.ceiling(elem));
+	}
+
+	public T lower(T elem) {
+		return locked(() -> tree.lower(elem));
+	}
+
+	public T higher(T elem) {
+		return locked(() -> tree.higher(elem));
+	}
+
+	public int rank(T elem) {
+		return locked(() -> tree.rank(elem));
+	}
+
+	public T select(int k) {
+		return locked(() -> tree.select(k));
+	}
+
+	public boolean contains(T elem) {
+		return locked(() -> tree.contains(elem));
+	}
+
+	public Comparator<? super T> comparator() {
+		return tree.comparator();
+	}
+
+	public void insert(T elem) {
+		if (contains(elem))
+			return;
+
+		long stamp = lock.writeLock();
+		try {
+			tree.insert(elem);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	public void delete(T elem) {
+		if (!contains(elem))
+			return;
+
+		long stamp = lock.writeLock();
+		try {
+			tree.delete(elem);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	public boolean insertAll(Collection<? extends T> elems) {
+		long stamp = lock.writeLock();
+		try {
+			return tree.insertAll(elems);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	public boolean deleteAll(Collection<? extends T> elems) {
+		long stamp = lock.writeLock();
+		try {
+			return tree.deleteAll(elems);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	public boolean retainAll(Collection<? extends T> elems) {
+		long stamp = lock.writeLock();
+		try {
+			return tree.retainAll(elems);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	public List<T> toList() {
+		return locked(tree::toList);
+	}
+
+	public T[] toArray(T[] array) {
+		return locked(() -> tree.toArray(array));
+	}
+
+	public String toString() {
+		return locked(tree::toString);
+	}
+
+	/**
+	 * @returns an iterator traversing, in a increasing order, the elements
+	 *          of the tree at the time of this call
+	 */
+	public Iterator<T> iterator() {
+		return Collections.unmodifiableList(toList()).iterator();
+	}
+
+	/**
+	 * @returns a spliterator traversing, in a increasing order, the elements
+	 *          of the tree at the time of this call
+	 */
+	public Spliterator<T> spliterator() {
+		Spliterator<T> elems = Spliterators.spliterator(toList(),
+				Spliterator.SORTED | Spliterator.DISTINCT
+						| Spliterator.ORDERED | Spliterator.NONNULL);
+		return comparator() == null ? elems
+				: new SortedSpliterator<>(elems, comparator());
+	}
+
+	/**
+	 * @returns an iterator traversing, in a increasing order, the elements
+	 *          in range at the time of this call
+	 */
+	public Iterator<T> rangeIterator(T from, boolean fromInclusive, T to,
+			boolean toInclusive) {
+		List<T> elems = locked(() -> {
+			List<T> list = new ArrayList<>();
+			tree.rangeIterator(from, fromInclusive, to, toInclusive)
+					.forEachRemaining(list::add);
+			return list;
+		});
+		return Collections.unmodifiableList(elems).iterator();
+	}
+
+	public int countInRange(T from, boolean fromInclusive, T to,
+			boolean toInclusive) {
+		return locked(() -> tree.countInRange(from, fromInclusive, to,
+				toInclusive));
+	}
+
+}
@@ -0,0 +1,604 @@
+package main.java.datatype;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * A n-tree whose changes survive crashes, kept in memory as an ArrayNTree
+ * and persisted in a directory with two files:
+ *
+ * - a snapshot of the tree, in the OffHeapNTree file format;
+ * - a write-ahead log with the insertions and deletions made after the
+ *   snapshot, each one a fixed-size record: operation | key | CRC32
+ *
+ * Every change is appended to the log before being applied to the tree, so
+ * a change is never rewritten into the snapshot on its own; the changes of
+ * a batch operation are appended together, all or none. The sync policy
+ * tells when the log is forced to disk: after every change, in groups of
+ * changes (ie, after groupSize changes or groupDelay milliseconds, whichever
+ * comes first), or only when the operating system decides to. Only the GROUP
+ * policy keeps changes in memory; the others write each one to the log as it
+ * is made.
+ *
+ * When the log grows beyond the checkpoint size, the tree is saved into a
+ * new snapshot, which atomically replaces the previous one, and the log is
+ * emptied. Opening a tree loads the snapshot and replays the log, ignoring a
+ * torn record at its end. Replaying the log over a newer snapshot (after a
+ * crash in the middle of a checkpoint) gives the same tree, as the last
+ * change of each element decides if it is in the tree.
+ *
+ * Like ArrayNTree, this tree is not thread-safe.
+ */
+public class DurableNTree<T extends Comparable<T>> implements NTree<T>,
+		Closeable {
+
+	/**
+	 * When the changes are forced to disk
+	 */
+	public enum SyncPolicy {
+		// every change is on disk once its method returns
+		EVERY_CHANGE,
+		// changes are on disk after groupSize changes or groupDelay ms
+		GROUP,
+		// changes are written to the log as they are made, and are on disk
+		// when the operating system writes them, or on a checkpoint, sync or
+		// close
+		OS
+	}
+
+	private static final String SNAPSHOT = "ntree.snapshot";
+	private static final String LOG = "ntree.log";
+
+	private static final byte INSERT = 1;
+	private static final byte DELETE = 2;
+
+	public static final int DEFAULT_GROUP_SIZE = 1024;
+	public static final long DEFAULT_GROUP_DELAY = 10;
+	public static final long DEFAULT_CHECKPOINT_SIZE = 64 << 20;
+
+	private final Path dir;
+	private final int capacity;
+	private final KeyCodec<T> codec;
+	private final SyncPolicy policy;
+	private final long checkpointSize;
+	private final int recordSize;
+
+	private final ArrayNTree<T> tree;
+	private final FileChannel log;
+	private final ByteBuffer pending;
+	private final CRC32 crc = new CRC32();
+	private final ScheduledExecutorService flusher;
+	private long logSize;
+	private volatile boolean closed;
+
+	/**
+	 * Opens the tree kept in the given directory, creating it if needed, with
+	 * the default group size, group delay and checkpoint size
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(n + m log n), for m changes in the log
+	 *
+	 * @param dir
+	 *            The directory with the tree's files
+	 * @param capacity
+	 *            The capacity of each node, ie, the maximum number of direct
+	 *            successors
+	 * @param codec
+	 *            The encoding of the elements
+	 * @param policy
+	 *            When the changes are forced to disk
+	 * @throws IOException
+	 *             if the files cannot be read or written
+	 */
+	public DurableNTree(Path dir, int capacity, KeyCodec<T> codec,
+			SyncPolicy policy) throws IOException {
+		this(dir, capacity, codec, policy, DEFAULT_GROUP_SIZE,
+				DEFAULT_GROUP_DELAY, DEFAULT_CHECKPOINT_SIZE);
+	}
+
+	/**
+	 * Opens the tree kept in the given directory, creating it if needed
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(n + m log n), for m changes in the log
+	 *
+	 * @param dir
+	 *            The directory with the tree's files
+	 * @param capacity
+	 *            The capacity of each node, ie, the maximum number of direct
+	 *            successors
+	 * @param codec
+	 *            The encoding of the elements
+	 * @param policy
+	 *            When the changes are forced to disk
+	 * @param groupSize
+	 *            With the GROUP policy, the maximum number of changes kept in
+	 *            memory
+	 * @param groupDelay
+	 *            With the GROUP policy, the maximum time, in milliseconds, a
+	 *            change waits to be forced to disk
+	 * @param checkpointSize
+	 *            The size of the log, in bytes, that starts a checkpoint
+	 * @throws IOException
+	 *             if the files cannot be read or written
+	 */
+	public DurableNTree(Path dir, int capacity, KeyCodec<T> codec,
+			SyncPolicy policy, int groupSize, long groupDelay,
+			long checkpointSize) throws IOException {
+		if (groupSize < 1 || groupDelay < 1 || checkpointSize < 1)
+			throw new IllegalArgumentException(
+					"group size, group delay and checkpoint size must be positive");
+
+		this.dir = dir;
+		this.capacity = capacity;
+		this.codec = codec;
+		this.policy = policy;
+		this.checkpointSize = checkpointSize;
+		recordSize = 1 + codec.width() + Integer.BYTES;
+
+		Files.createDirectories(dir);
+		tree = loadSnapshot();
+
+		log = FileChannel.open(dir.resolve(LOG), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		logSize = replayLog();
+		pending = ByteBuffer.allocate(
+				(policy == SyncPolicy.GROUP ? groupSize : 1) * recordSize);
+
+		if (policy == SyncPolicy.GROUP) {
+			flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "ntree-log-flusher");
+				thread.setDaemon(true);
+				return thread;
+			});
+			flusher.scheduleWithFixedDelay(this::flushQuietly, groupDelay,
+					groupDelay, TimeUnit.MILLISECONDS);
+		} else {
+			flusher = null;
+		}
+	}
+
+	private ArrayNTree<T> loadSnapshot() throws IOException {
+		Path snapshot = dir.resolve(SNAPSHOT);
+		if (!Files.exists(snapshot))
+			return new ArrayNTree<>(capacity);
+
+		try (OffHeapNTree<T> saved = OffHeapNTree.open(snapshot, codec)) {
+			// saved in order, so no sorting is needed
+			return ArrayNTree.bulkLoad(saved.toList(), capacity, 1, false);
+		}
+	}
+
+	/**
+	 * Applies the records of the log to the tree, stopping at the first
+	 * incomplete or corrupted record, which is discarded with all that
+	 * follows it
+	 *
+	 * @return the size of the valid part of the log
+	 */
+	private long replayLog() throws IOException {
+		ByteBuffer record = ByteBuffer.allocate(recordSize);
+		long position = 0;
+
+		while (true) {
+			record.clear();
+			while (record.hasRemaining()
+					&& log.read(record, position + record.position()) > 0)
+				;
+			if (record.hasRemaining())
+				break;
+
+			crc.reset();
+			crc.update(record.array(), 0, recordSize - Integer.BYTES);
+			if ((int) crc.getValue() != record.getInt(recordSize - Integer.BYTES))
+				break;
+
+			T elem = codec.read(record, 1);
+			if (record.get(0) == INSERT)
+				tree.insert(elem);
+			else if (record.get(0) == DELETE)
+				tree.delete(elem);
+			else
+				break;
+			position += recordSize;
+		}
+
+		if (log.size() > position) {
+			log.truncate(position);
+			log.force(false);
+		}
+		return position;
+	}
+
+	/**
+	 * Appends changes to the log, in one write forced to disk once, as the
+	 * sync policy demands. With the GROUP policy, changes that fit in memory
+	 * are kept there instead. If the changes cannot be written, they are all
+	 * dropped
+	 */
+	private synchronized void append(byte op, Collection<T> elems)
+			throws IOException {
+		int length = elems.size() * recordSize;
+		if (length == 0)
+			return;
+
+		if (policy == SyncPolicy.GROUP) {
+			if (length > pending.remaining())
+				flush(true);
+			if (length <= pending.remaining()) {
+				encode(pending, op, elems);
+				return;
+			}
+		}
+
+		// too many changes to keep: written on their own
+		ByteBuffer records = length <= pending.remaining() ? pending
+				: ByteBuffer.allocate(length);
+		encode(records, op, elems);
+		records.flip();
+		try {
+			write(records, policy != SyncPolicy.OS);
+		} finally {
+			// written or dropped, the changes are no longer pending
+			records.clear();
+		}
+	}
+
+	/**
+	 * Puts the records of the changes into the buffer. If one cannot be
+	 * encoded, none is put
+	 */
+	private void encode(ByteBuffer records, byte op, Collection<T> elems) {
+		int first = records.position();
+		try {
+			for (T elem : elems) {
+				int start = records.position();
+				records.put(op);
+				codec.write(records, start + 1, elem);
+				records.position(start + 1 + codec.width());
+				crc.reset();
+				crc.update(records.array(), start, 1 + codec.width());
+				records.putInt((int) crc.getValue());
+			}
+		} catch (RuntimeException e) {
+			records.position(first);
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes the changes kept in memory to the log. If they cannot all be
+	 * written and forced, they are kept, and written again at the same
+	 * position of the log on the next flush
+	 *
+	 * @param force
+	 *            true if the log is also to be forced to disk
+	 */
+	private synchronized void flush(boolean force) throws IOException {
+		int end = pending.position();
+		boolean written = false;
+		pending.flip();
+		try {
+			write(pending, force);
+			written = true;
+		} finally {
+			// back to appending, after the changes kept if any
+			pending.limit(pending.capacity());
+			pending.position(written ? 0 : end);
+		}
+	}
+
+	/**
+	 * Writes records at the end of the log, forcing them to disk if asked.
+	 * The records are only part of the log once both succeed: otherwise the
+	 * log is truncated back to its previous size, so a change reported as
+	 * failed is not replayed on reopen, and no torn record is left behind
+	 * valid ones
+	 */
+	private void write(ByteBuffer records, boolean force) throws IOException {
+		long position = logSize;
+		try {
+			while (records.hasRemaining())
+				position += log.write(records, position);
+			if (force)
+				log.force(false);
+		} catch (IOException e) {
+			try {
+				log.truncate(logSize);
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		}
+		logSize = position;
+	}
+
+	private void flushQuietly() {
+		try {
+			if (pending.position() > 0)
+				flush(true);
+		} catch (IOException e) {
+			// the changes are kept and retried on the next flush
+		}
+	}
+
+	/**
+	 * Forces all the changes made so far to disk
+	 *
+	 * @throws IOException
+	 *             if the log cannot be written
+	 */
+	public void sync() throws IOException {
+		checkOpen();
+		flush(true);
+	}
+
+	/**
+	 * Saves the tree into a new snapshot and empties the log
+	 *
+	 * @best-case O(n)
+	 * @worst-case O(n)
+	 *
+	 * @throws IOException
+	 *             if the files cannot be written
+	 */
+	public synchronized void checkpoint() throws IOException {
+		checkOpen();
+		flush(true);
+
+		Path snapshot = dir.resolve(SNAPSHOT);
+		Path tmp = dir.resolve(SNAPSHOT + ".tmp");
+		OffHeapNTree.save(tree, tmp, capacity, codec);
+		Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		forceDirectory();
+
+		log.truncate(0);
+		log.force(false);
+		logSize = 0;
+	}
+
+	// makes the snapshot's new name durable, where the platform allows it
+	private void forceDirectory() {
+		try (FileChannel channel = FileChannel.open(dir,
+				StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// directories cannot be opened on some platforms
+		}
+	}
+
+	/**
+	 * Forces all the changes to disk and releases the files. The tree cannot
+	 * be changed afterwards: its changes, sync and checkpoint throw an
+	 * IllegalStateException
+	 *
+	 * @throws IOException
+	 *             if the log cannot be written
+	 */
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+		}
+
+		if (flusher != null) {
+			flusher.shutdown();
+			try {
+				// a running flush ends on its own; none starts after it
+				flusher.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		synchronized (this) {
+			try {
+				flush(true);
+			} finally {
+				log.close();
+			}
+		}
+	}
+
+	private void checkOpen() {
+		if (closed)
+			throw new IllegalStateException("the tree is closed");
+	}
+
+	// changes
+
+	/**
+	 * Insert element into tree keeping the invariant If an element already
+	 * exists, the tree does not change
+	 *
+	 * @param elem
+	 *            the element to be inserted
+	 * @throws UncheckedIOException
+	 *             if the change cannot be logged; the tree does not change
+	 * @throws IllegalStateException
+	 *             if the tree is closed
+	 */
+	public void insert(T elem) {
+		checkOpen();
+		if (!tree.contains(elem)) {
+			log(INSERT, Collections.singletonList(elem));
+			tree.insert(elem);
+			checkpointIfNeeded();
+		}
+	}
+
+	/**
+	 * Delete element from tree keeping the invariant If an element does not
+	 * exist, the tree does not change
+	 *
+	 * @param elem
+	 *            the element to be deleted
+	 * @throws UncheckedIOException
+	 *             if the change cannot be logged; the tree does not change
+	 * @throws IllegalStateException
+	 *             if the tree is closed
+	 */
+	public void delete(T elem) {
+		checkOpen();
+		if (tree.contains(elem)) {
+			log(DELETE, Collections.singletonList(elem));
+			tree.delete(elem);
+			checkpointIfNeeded();
+		}
+	}
+
+	public boolean insertAll(Collection<? extends T> elems) {
+		checkOpen();
+		List<T> added = new ArrayList<>();
+		for (T elem : new TreeSet<>(elems))
+			if (!tree.contains(elem))
+				added.add(elem);
+
+		log(INSERT, added);
+		boolean changed = tree.insertAll(elems);
+		checkpointIfNeeded();
+		return changed;
+	}
+
+	public boolean deleteAll(Collection<? extends T> elems) {
+		checkOpen();
+		List<T> removed = new ArrayList<>();
+		for (T elem : new TreeSet<>(elems))
+			if (tree.contains(elem))
+				removed.add(elem);
+
+		log(DELETE, removed);
+		boolean changed = tree.deleteAll(elems);
+		checkpointIfNeeded();
+		return changed;
+	}
+
+	public boolean retainAll(Collection<? extends T> elems) {
+		checkOpen();
+		Set<T> keep = new TreeSet<>(elems);
+		List<T> removed = new ArrayList<>();
+		for (T elem : tree)
+			if (!keep.contains(elem))
+				removed.add(elem);
+
+		log(DELETE, removed);
+		boolean changed = tree.retainAll(elems);
+		checkpointIfNeeded();
+		return changed;
+	}
+
+	private void log(byte op, Collection<T> elems) {
+		try {
+			append(op, elems);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void checkpointIfNeeded() {
+		try {
+			if (logSize + pending.position() >= checkpointSize)
+				checkpoint();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// queries
+
+	public boolean isEmpty() {
+		return tree.isEmpty();
+	}
+
+	public boolean isLeaf() {
+		return tree.isLeaf();
+	}
+
+	public int size() {
+		return tree.size();
+	}
+
+	public int countLeaves() {
+		return tree.countLeaves();
+	}
+
+	public int height() {
+		return tree.height();
+	}
+
+	public T min() {
+		return tree.min();
+	}
+
+	public T max() {
+		return tree.max();
+	}
+
+	public T floor(T elem) {
+		return tree.floor(elem);
+	}
+
+	public T ceiling(T elem) {
+		return tree.ceiling(elem);
+	}
+
+	public T lower(T elem) {
+		return tree.lower(elem);
+	}
+
+	public T higher(T elem) {
+		return tree.higher(elem);
+	}
+
+	public int rank(T elem) {
+		return tree.rank(elem);
+	}
+
+	public T select(int k) {
+		return tree.select(k);
+	}
+
+	public boolean contains(T elem) {
+		return tree.contains(elem);
+	}
+
+	public List<T> toList() {
+		return tree.toList();
+	}
+
+	public T[] toArray(T[] array) {
+		return tree.toArray(array);
+	}
+
+	public String toString() {
+		return tree.toString();
+	}
+
+	public Iterator<T> iterator() {
+		return tree.iterator();
+	}
+
+	public Spliterator<T> spliterator() {
+		return tree.spliterator();
+	}
+
+	public Iterator<T> rangeIterator(T from, boolean fromInclusive, T to,
+			boolean toInclusive) {
+		return tree.rangeIterator(from, fromInclusive, to, toInclusive);
+	}
+
+	public int countInRange(T from, boolean fromInclusive, T to,
+			boolean toInclusive) {
+		return tree.countInRange(from, fromInclusive, to, toInclusive);
+	}
+
+}
@@ -0,0 +1,158 @@
+package main.java.datatype;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes the elements of a n-tree as fixed-width sequences of bytes, so
+ * they can be kept outside the Java heap.
+ *
+ * @param <T> The type of elements encoded
+ */
+public interface KeyCodec<T> {
+
+	/**
+	 * The number of bytes taken by each encoded element
+	 * @return the width of the encoding
+	 */
+	public int width();
+
+	/**
+	 * Encode an element at the given position of a buffer
+	 * @param buffer the buffer where the element is stored
+	 * @param offset the position of the first byte
+	 * @param elem the element to encode
+	 */
+	public void write(ByteBuffer buffer, int offset, T elem);
+
+	/**
+	 * Decode the element at the given position of a buffer
+	 * @param buffer the buffer where the element is stored
+	 * @param offset the position of the first byte
+	 * @return the decoded element
+	 */
+	public T read(ByteBuffer buffer, int offset);
+
+	/**
+	 * Compare the element at the given position of a buffer with another
+	 * element, by their natural ordering. Codecs should override it to
+	 * compare without decoding, and must override it if the elements are
+	 * not Comparable
+	 * @param buffer the buffer where the element is stored
+	 * @param offset the position of the first byte
+	 * @param elem the element to compare with
+	 * @return a negative number, zero, or a positive number as the stored
+	 *   element is less than, equal to, or greater than elem
+	 */
+	@SuppressWarnings("unchecked")
+	public default int compare(ByteBuffer buffer, int offset, T elem) {
+		return ((Comparable<T>) read(buffer, offset)).compareTo(elem);
+	}
+
+	/**
+	 * Write an element to a stream, given the element written before it, so
+	 * sorted elements can be encoded by their differences. By default, the
+	 * element is written with its fixed-width encoding
+	 * @param out the stream
+	 * @param previous the element written before, smaller than elem, or
+	 *   null if elem is the first one
+	 * @param elem the element to write
+	 * @throws IOException if the stream cannot be written
+	 */
+	public default void writeDelta(DataOutput out, T previous, T elem)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(width());
+		write(buffer, 0, elem);
+		out.write(buffer.array());
+	}
+
+	/**
+	 * Read an element written by writeDelta
+	 * @param in the stream
+	 * @param previous the element read before, or null if it is the first
+	 * @return the element read
+	 * @throws IOException if the stream cannot be read
+	 */
+	public default T readDelta(DataInput in, T previous) throws IOException {
+		byte[] bytes = new byte[width()];
+		in.readFully(bytes);
+		return read(ByteBuffer.wrap(bytes), 0);
+	}
+
+	/**
+	 * Integers, as 4 bytes, or as varint differences in streams
+	 */
+	public static final KeyCodec<Integer> INTEGER = new KeyCodec<Integer>() {
+
+		public int width() {
+			return Integer.BYTES;
+		}
+
+		public void write(ByteBuffer buffer, int offset, Integer elem) {
+			buffer.putInt(offset, elem);
+		}
+
+		public Integer read(ByteBuffer buffer, int offset) {
+			return buffer.getInt(offset);
+		}
+
+		public int compare(ByteBuffer buffer, int offset, Integer elem) {
+			return Integer.compare(buffer.getInt(offset), elem);
+		}
+
+		public void writeDelta(DataOutput out, Integer previous, Integer elem)
+				throws IOException {
+			if (previous == null)
+				Varint.write(out, Varint.zigZag(elem));
+			else
+				Varint.write(out, (long) elem - previous);
+		}
+
+		public Integer readDelta(DataInput in, Integer previous)
+				throws IOException {
+			if (previous == null)
+				return (int) Varint.unZigZag(Varint.read(in));
+			return (int) (previous + Varint.read(in));
+		}
+	};
+
+	/**
+	 * Longs, as 8 bytes, or as varint differences in streams
+	 */
+	public static final KeyCodec<Long> LONG = new KeyCodec<Long>() {
+
+		public int width() {
+			return Long.BYTES;
+		}
+
+		public void write(ByteBuffer buffer, int offset, Long elem) {
+			buffer.putLong(offset, elem);
+		}
+
+		public Long read(ByteBuffer buffer, int offset) {
+			return buffer.getLong(offset);
+		}
+
+		public int compare(ByteBuffer buffer, int offset, Long elem) {
+			return Long.compare(buffer.getLong(offset), elem);
+		}
+
+		public void writeDelta(DataOutput out, Long previous, Long elem)
+				throws IOException {
+			// the difference of sorted elements, taken as unsigned, never
+			// overflows
+			if (previous == null)
+				Varint.write(out, Varint.zigZag(elem));
+			else
+				Varint.write(out, elem - previous);
+		}
+
+		public Long readDelta(DataInput in, Long previous) throws IOException {
+			if (previous == null)
+				return Varint.unZigZag(Varint.read(in));
+			return previous + Varint.read(in);
+		}
+	};
+}
@@ -0,0 +1,77 @@
+package main.java.datatype;
+
+/**
+ * Searches the sorted keys of the children of a node of the primitive
+ * trees. This class does a binary search; when the JDK Vector API is
+ * available, INSTANCE is a VectorKeySearch, which compares a whole vector
+ * of keys at once. VectorKeySearch is compiled by the vector profile, and
+ * is only loaded by JVMs started with --add-modules jdk.incubator.vector
+ */
+class KeySearch {
+
+	/**
+	 * The fastest search available in this JVM
+	 */
+	static final KeySearch INSTANCE = load();
+
+	private static KeySearch load() {
+		try {
+			return (KeySearch) Class
+					.forName("main.java.datatype.VectorKeySearch")
+					.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			// not compiled, or the Vector API is not in this JVM
+			return new KeySearch();
+		}
+	}
+
+	/**
+	 * Finds the last of the sorted keys keys[from..from + n[ not greater than
+	 * key
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 *
+	 * @return the position of that key, counted from from, or -1 if there
+	 *         is none
+	 */
+	int lastNotGreater(int[] keys, int from, int n, int key) {
+		int low = 0;
+		int high = n - 1;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (keys[from + mid] <= key)
+				low = mid + 1;
+			else
+				high = mid - 1;
+		}
+
+		return high;
+	}
+
+	/**
+	 * Finds the last of the sorted keys keys[from..from + n[ not greater than
+	 * key
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 *
+	 * @return the position of that key, counted from from, or -1 if there
+	 *         is none
+	 */
+	int lastNotGreater(long[] keys, int from, int n, long key) {
+		int low = 0;
+		int high = n - 1;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (keys[from + mid] <= key)
+				low = mid + 1;
+			else
+				high = mid - 1;
+		}
+
+		return high;
+	}
+}
@@ -0,0 +1,225 @@
+package main.java.datatype;
+
+import java.util.*;
+
+/**
+ * A n-tree of long values, with the same structure and semantics as
+ * ArrayNTree but without boxing.
+ *
+ * The tree itself is kept by PrimitiveArrayNTree; this class only keeps the
+ * values, once each, at the positions given by the parents of their nodes.
+ * IntArrayNTree is the same tree for int values.
+ *
+ * Unlike ArrayNTree, this is not a NTree: it only offers insertion,
+ * deletion, membership, min, max, bulk loading and traversals. There are no
+ * floor, ceiling, rank, select, range or batch operations, nor sub-tree
+ * views.
+ */
+public class LongArrayNTree extends PrimitiveArrayNTree implements
+		Iterable<Long> {
+
+	/**
+	 * A capacity whose child keys fill a 64-byte cache line: 8 longs
+	 */
+	public static final int CACHE_LINE_CAPACITY = 8;
+
+	private long[] keys = new long[ROOT_KEY + 1];
+
+	/**
+	 * Creates an empty tree with nodes of CACHE_LINE_CAPACITY children
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 */
+	public LongArrayNTree() {
+		this(CACHE_LINE_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty tree
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 *
+	 * @param capacity
+	 *            The capacity of each node, ie, the maximum number of direct
+	 *            successors
+	 */
+	public LongArrayNTree(int capacity) {
+		super(capacity);
+	}
+
+	/**
+	 * Creates a balanced tree with the given elements, built bottom-up. Each
+	 * node keeps up to ceil(capacity * fillFactor) children, so a fill factor
+	 * below 1 leaves room in every node for later insertions
+	 *
+	 * @best-case O(n)
+	 * @worst-case O(n log n), if the elements are not sorted
+	 *
+	 * @param elems
+	 *            The elements to insert
+	 * @param capacity
+	 *            The capacity of each node, ie, the maximum number of direct
+	 *            successors
+	 * @param fillFactor
+	 *            The fraction of each node's capacity to fill, in ]0, 1]
+	 * @param removeDuplicates
+	 *            true if repeated elements are to be discarded; if false,
+	 *            repeated elements are an error
+	 * @throws IllegalArgumentException
+	 *             if the capacity or the fill factor are not valid, or if
+	 *             there are repeated elements and removeDuplicates is false
+	 * @return the new tree
+	 */
+	public static LongArrayNTree bulkLoad(long[] elems, int capacity,
+			double fillFactor, boolean removeDuplicates) {
+		int fanOut = fanOut(capacity, fillFactor);
+		LongArrayNTree tree = new LongArrayNTree(capacity);
+
+		long[] array = elems.clone();
+		Arrays.sort(array);
+		int n = 0;
+		for (int i = 0; i < array.length; i++) {
+			if (n > 0 && array[n - 1] == array[i]) {
+				if (!removeDuplicates)
+					throw new IllegalArgumentException(
+							"repeated element: " + array[i]);
+			} else {
+				array[n++] = array[i];
+			}
+		}
+
+		tree.load(i -> array[i], n, fanOut);
+		return tree;
+	}
+
+	/**
+	 * The minimum value of the tree
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 *
+	 * @throws NoSuchElementException
+	 *             if the tree is empty
+	 * @return the minimum value
+	 */
+	public long min() {
+		return minKey();
+	}
+
+	/**
+	 * The maximum value of the tree, found by following the last child of
+	 * each node
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 *
+	 * @throws NoSuchElementException
+	 *             if the tree is empty
+	 * @return the maximum value
+	 */
+	public long max() {
+		return maxKey();
+	}
+
+	/**
+	 * Verifies is an element in in the tree
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 *
+	 * @param elem
+	 *            the element to be searched
+	 * @return true iff elem belongs to tree
+	 */
+	public boolean contains(long elem) {
+		return containsKey(elem);
+	}
+
+	/**
+	 * Insert element into tree keeping the invariant If an element already
+	 * exists, the tree does not change
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 *
+	 * @param elem
+	 *            the element to be inserted
+	 */
+	public void insert(long elem) {
+		insertKey(elem);
+	}
+
+	/**
+	 * Delete element from tree keeping the invariant If an element does not
+	 * exist, the tree does not change
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 *
+	 * @param elem
+	 *            the element to be deleted
+	 */
+	public void delete(long elem) {
+		deleteKey(elem);
+	}
+
+	protected long key(int pos) {
+		return keys[pos];
+	}
+
+	protected void setKey(int pos, long key) {
+		keys[pos] = key;
+	}
+
+	protected void moveKeys(int from, int to, int length) {
+		System.arraycopy(keys, from, keys, to, length);
+	}
+
+	/**
+	 * Searches the keys with the Vector API if available, or with a binary
+	 * search
+	 */
+	protected int lastNotGreater(int from, int length, long elem) {
+		return KeySearch.INSTANCE.lastNotGreater(keys, from, length, elem);
+	}
+
+	protected void resizeKeys(int positions) {
+		keys = Arrays.copyOf(keys, positions);
+	}
+
+	/**
+	 * Convert tree into an array. The array has the elements accordingly to
+	 * the tree's prefix traversal, ie, sequenced by increasing order
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(n)
+	 *
+	 * @returns the array with the tree's elements
+	 */
+	public long[] toArray() {
+		long[] array = new long[size()];
+		PrimitiveIterator.OfLong it = iterator();
+		for (int i = 0; i < array.length; i++)
+			array[i] = it.nextLong();
+		return array;
+	}
+
+	/**
+	 * @returns an iterator traversing elements in a increasing order
+	 */
+	public PrimitiveIterator.OfLong iterator() {
+		return new LongArrayNTreeIterator();
+	}
+
+	private class LongArrayNTreeIterator extends NodeIterator implements
+			PrimitiveIterator.OfLong {
+
+		@Override
+		public long nextLong() {
+			return keys[nextKeyPos()];
+		}
+	}
+
+}
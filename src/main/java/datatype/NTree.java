@@ -1,13 +1,20 @@
 package main.java.datatype;
 
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This type represents a n-ary tree, denoted n-tree.
  * This tree is able to keep a multitude of children on each node.
  * 
- * The n-tree assumes a total ordering of the elements it keeps.
+ * The n-tree assumes a total ordering of the elements it keeps: their
+ * natural ordering, or the one given by its comparator.
  * The n-tree does not have repetitions.
  * 
  * The n-tree node structure must respect the following invariant: 
@@ -17,7 +24,15 @@ import java.util.List;
  *
  * @param <T> The type of elements kept in the n-tree
  */
-public interface NTree<T extends Comparable<T>> extends Iterable<T> {
+public interface NTree<T> extends Iterable<T> {
+	
+	/**
+	 * The comparator ordering the elements
+	 * @return the comparator, or null if the elements are in their natural ordering
+	 */
+	public default Comparator<? super T> comparator() {
+		return null;
+	}
 	
 	/**
 	 * Verifies if tree is empty
@@ -51,18 +66,59 @@ public interface NTree<T extends Comparable<T>> extends Iterable<T> {
 	
 	/**
 	 * The minimum value of the tree
-	 * @requires !isEmtpy()
-	 * @return the minimum value
+	 * @return the minimum value, or null if the tree is empty
 	 */
 	public T min();
 	
 	/**
 	 * The maximum value of the tree
-	 * @requires !isEmtpy()
-	 * @return the maximum value
+	 * @return the maximum value, or null if the tree is empty
 	 */
 	public T max();
 	
+	/**
+	 * The greatest element of the tree less than or equal to the given one
+	 * @param elem the element to be compared
+	 * @return the greatest element <= elem, or null if there is none
+	 */
+	public T floor(T elem);
+	
+	/**
+	 * The smallest element of the tree greater than or equal to the given one
+	 * @param elem the element to be compared
+	 * @return the smallest element >= elem, or null if there is none
+	 */
+	public T ceiling(T elem);
+	
+	/**
+	 * The greatest element of the tree strictly less than the given one
+	 * @param elem the element to be compared
+	 * @return the greatest element < elem, or null if there is none
+	 */
+	public T lower(T elem);
+	
+	/**
+	 * The smallest element of the tree strictly greater than the given one
+	 * @param elem the element to be compared
+	 * @return the smallest element > elem, or null if there is none
+	 */
+	public T higher(T elem);
+	
+	/**
+	 * The number of elements of the tree less than the given one
+	 * @param elem the element to be compared
+	 * @return the number of elements < elem
+	 */
+	public int rank(T elem);
+	
+	/**
+	 * The k-th smallest element of the tree, counting from zero
+	 * @param k the rank of the element
+	 * @requires 0 <= k < size()
+	 * @return the element with rank k
+	 */
+	public T select(int k);
+	
 	/**
 	 * Verifies is an element in in the tree
 	 * @param elem the element to be searched
@@ -84,6 +140,30 @@ public interface NTree<T extends Comparable<T>> extends Iterable<T> {
 	 */
 	public void delete(T elem);
 	
+	/**
+	 * Insert all the given elements into tree keeping the invariant
+	 * Elements that already exist are ignored
+	 * @param elems the elements to be inserted
+	 * @return true iff the tree changed
+	 */
+	public boolean insertAll(Collection<? extends T> elems);
+	
+	/**
+	 * Delete all the given elements from tree keeping the invariant
+	 * Elements that do not exist are ignored
+	 * @param elems the elements to be deleted
+	 * @return true iff the tree changed
+	 */
+	public boolean deleteAll(Collection<? extends T> elems);
+	
+	/**
+	 * Delete from tree all the elements not in the given collection, 
+	 * keeping the invariant
+	 * @param elems the elements to be kept
+	 * @return true iff the tree changed
+	 */
+	public boolean retainAll(Collection<? extends T> elems);
+	
 	/**
 	 * Convert tree into list. The list has the elements accordingly to the tree's 
 	 * prefix traversal, ie, the elements will be sequenced by increasing order
@@ -91,9 +171,113 @@ public interface NTree<T extends Comparable<T>> extends Iterable<T> {
 	 */	
 	public List<T> toList();
 	
+	/**
+	 * Copy the tree's elements into an array, by increasing order. If the 
+	 * given array is too small, a new array of the same type is allocated;
+	 * if it is larger, the position after the last element is set to null 
+	 * @param array the array where the elements are to be stored
+	 * @returns the array with the tree's elements
+	 */
+	public T[] toArray(T[] array);
+	
 	/**
 	 * @returns an iterator traversing elements in a increasing order
 	 */
 	public Iterator<T> iterator();
 	
+	/**
+	 * A spliterator over the elements in increasing order. By default, it
+	 * wraps the iterator, so it splits poorly
+	 * @returns a SORTED, DISTINCT, ORDERED and SIZED spliterator, whose
+	 * comparator is the tree's
+	 */
+	public default Spliterator<T> spliterator() {
+		Spliterator<T> elems = Spliterators.spliterator(iterator(), size(),
+				Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.ORDERED
+						| Spliterator.NONNULL);
+		return comparator() == null ? elems
+				: new SortedSpliterator<>(elems, comparator());
+	}
+	
+	/**
+	 * A sequential stream of the elements in increasing order
+	 * @return the stream of the tree's elements
+	 */
+	public default Stream<T> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+	
+	/**
+	 * A parallel stream of the elements in increasing order
+	 * @return the stream of the tree's elements
+	 */
+	public default Stream<T> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+	
+	/**
+	 * An iterator over the elements between two bounds
+	 * @param from the lower bound, or null if there is none
+	 * @param fromInclusive true if the lower bound may be returned
+	 * @param to the upper bound, or null if there is none
+	 * @param toInclusive true if the upper bound may be returned
+	 * @returns an iterator traversing the elements in range in a increasing order
+	 */
+	public Iterator<T> rangeIterator(T from, boolean fromInclusive, T to, boolean toInclusive);
+	
+	/**
+	 * The number of elements between two bounds
+	 * @param from the lower bound, or null if there is none
+	 * @param fromInclusive true if the lower bound is to be counted
+	 * @param to the upper bound, or null if there is none
+	 * @param toInclusive true if the upper bound is to be counted
+	 * @return the number of elements in range
+	 */
+	public int countInRange(T from, boolean fromInclusive, T to, boolean toInclusive);
+	
+	/**
+	 * A view of the elements of the tree between two bounds. Changes to the
+	 * tree are seen by the view and vice-versa; inserting an element out of
+	 * range into the view is an error. Views have no shape of their own, so
+	 * their height and leaves cannot be counted
+	 * @param from the lower bound, or null if there is none
+	 * @param fromInclusive true if the lower bound belongs to the view
+	 * @param to the upper bound, or null if there is none
+	 * @param toInclusive true if the upper bound belongs to the view
+	 * @return the view of the elements in range
+	 */
+	public default NTree<T> subTree(T from, boolean fromInclusive, T to, boolean toInclusive) {
+		return new SubNTree<>(this, from, fromInclusive, to, toInclusive);
+	}
+	
+	/**
+	 * A view of the elements of the tree in [from, to[
+	 * @param from the lower bound
+	 * @param to the upper bound
+	 * @return the view of the elements in range
+	 */
+	public default NTree<T> subTree(T from, T to) {
+		return subTree(from, true, to, false);
+	}
+	
+	/**
+	 * A view of the elements of the tree less than (or equal to) a bound
+	 * @param to the upper bound
+	 * @param inclusive true if the bound belongs to the view
+	 * @return the view of the elements in range
+	 */
+	public default NTree<T> headTree(T to, boolean inclusive) {
+		return subTree(null, true, to, inclusive);
+	}
+	
+	/**
+	 * A view of the elements of the tree greater than (or equal to) a bound
+	 * @param from the lower bound
+	 * @param inclusive true if the bound belongs to the view
+	 * @return the view of the elements in range
+	 */
+	public default NTree<T> tailTree(T from, boolean inclusive) {
+		return subTree(from, inclusive, null, true);
+	}
+	
 }
@@ -0,0 +1,1065 @@
+package main.java.datatype;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A n-tree whose nodes are kept outside the Java heap, in direct byte
+ * buffers, with the same structure and algorithms as ArrayNTree.
+ *
+ * Every node takes a fixed-size slot, sized from the capacity and the width
+ * of the key codec:
+ *
+ *   numChildren | size | height | leaves | capacity child slots | key
+ *
+ * (4 bytes each, except the key). The slots live in chunks of at most 1GB,
+ * so trees may grow beyond 2GB and adding a chunk never copies the previous
+ * ones. Slots of removed nodes are kept in a free list and reused.
+ *
+ * As the garbage collector only sees the chunks, not the nodes, large trees
+ * add nothing to its work. The chunks are freed by close(), at once on JDK 9+
+ * (on older JVMs, once the garbage collector finds them unreachable); the
+ * tree cannot be used afterwards.
+ *
+ * A tree can be saved to a file, one page per node, with the same layout as
+ * the slots, after a header of HEADER_SIZE bytes:
+ *
+ *   magic | version | capacity | key width | page size | root | pages
+ *
+ * (4 bytes each, the remaining bytes of the header are reserved). The saved
+ * tree is balanced and its pages are numbered in prefix order, ie, page k
+ * keeps the k-th smallest element. Opening such a file maps it into memory
+ * as a read-only tree, which is queried in place: nothing is read until it
+ * is needed, so opening is immediate whatever the size of the tree.
+ */
+public class OffHeapNTree<T extends Comparable<T>>
+		implements NTree<T>, AutoCloseable {
+
+	// no node, eg the root of an empty tree
+	private static final int NIL = -1;
+
+	// offsets of the fields of a slot
+	private static final int NUM_CHILDREN = 0;
+	private static final int SIZE = 4;
+	private static final int HEIGHT = 8;
+	private static final int LEAVES = 12;
+	private static final int CHILDREN = 16;
+
+	private static final int MAX_CHUNK_BYTES = 1 << 30;
+	private static final int INITIAL_SLOTS = 64;
+
+	// the file header
+	private static final int MAGIC = 0x4E545245;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+
+	private final int capacity;
+	private final KeyCodec<T> codec;
+	private final int slotSize;
+	private final int keyOffset;
+	private final int slotsPerChunk;
+
+	private ByteBuffer[] chunks;
+	// true for trees mapped from a file
+	private final boolean readOnly;
+	private int slots;
+	private int allocated;
+	// a free slot keeps the next free slot in its size field
+	private int free = NIL;
+
+	private int root = NIL;
+
+	// number of changes made through this tree, used by its iterators to
+	// detect concurrent modifications
+	private int modCount;
+
+	/**
+	 * Creates an empty tree
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 *
+	 * @param capacity
+	 *            The capacity of each node, ie, the maximum number of direct
+	 *            successors
+	 * @param codec
+	 *            The encoding of the elements
+	 */
+	public OffHeapNTree(int capacity, KeyCodec<T> codec) {
+		this(capacity, codec, false);
+
+		int initial = Math.min(INITIAL_SLOTS, slotsPerChunk);
+		chunks = new ByteBuffer[] { ByteBuffer.allocateDirect(initial * slotSize) };
+		slots = initial;
+	}
+
+	private OffHeapNTree(int capacity, KeyCodec<T> codec, boolean readOnly) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+
+		this.capacity = capacity;
+		this.codec = codec;
+		this.readOnly = readOnly;
+		keyOffset = keyOffset(capacity);
+		slotSize = slotSize(capacity, codec);
+		slotsPerChunk = Math.max(1, MAX_CHUNK_BYTES / slotSize);
+	}
+
+	private static int keyOffset(int capacity) {
+		return CHILDREN + Integer.BYTES * capacity;
+	}
+
+	// slots aligned to 8 bytes
+	private static int slotSize(int capacity, KeyCodec<?> codec) {
+		return (keyOffset(capacity) + codec.width() + 7) & ~7;
+	}
+
+	/**
+	 * Saves the elements of a tree into a file, as a balanced tree with the
+	 * given capacity. Pages are written in a single traversal of the tree
+	 *
+	 * @best-case O(n)
+	 * @worst-case O(n)
+	 *
+	 * @param tree
+	 *            The tree to save
+	 * @param file
+	 *            The file to write, replaced if it exists
+	 * @param capacity
+	 *            The capacity of each node of the saved tree
+	 * @param codec
+	 *            The encoding of the elements
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public static <T extends Comparable<T>> void save(NTree<T> tree,
+			Path file, int capacity, KeyCodec<T> codec) throws IOException {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			int size = tree.size();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putInt(capacity)
+					.putInt(codec.width()).putInt(slotSize(capacity, codec))
+					.putInt(size == 0 ? NIL : 0).putInt(size);
+			header.clear();
+			writeFully(channel, header, 0);
+
+			if (size > 0)
+				new PageWriter<>(channel, tree.iterator(), capacity, codec)
+						.write(0, size);
+
+			channel.force(true);
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer,
+			long position) throws IOException {
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+	/**
+	 * Writes the pages of a balanced tree, as ArrayNTree.bulkLoad would build
+	 * it. As pages are numbered in prefix order, the node with the elements
+	 * of ranks [from..to[ is page from, and the elements are needed in the
+	 * same order the iterator gives them
+	 */
+	private static class PageWriter<T extends Comparable<T>> {
+
+		private final FileChannel channel;
+		private final Iterator<T> elems;
+		private final int capacity;
+		private final KeyCodec<T> codec;
+		private final int slotSize;
+		private final ByteBuffer page;
+
+		PageWriter(FileChannel channel, Iterator<T> elems, int capacity,
+				KeyCodec<T> codec) {
+			this.channel = channel;
+			this.elems = elems;
+			this.capacity = capacity;
+			this.codec = codec;
+			slotSize = slotSize(capacity, codec);
+			page = ByteBuffer.allocate(slotSize);
+		}
+
+		/**
+		 * Writes the subtree with the elements of ranks [from..to[
+		 *
+		 * @return the height of the subtree in the high 32 bits, and its
+		 *         number of leaves in the low ones
+		 */
+		long write(int from, int to) throws IOException {
+			T elem = elems.next();
+
+			int rest = to - from - 1;
+			int nChildren = Math.min(capacity, rest);
+			int[] childPages = new int[nChildren];
+			int height = 1;
+			int leaves = nChildren == 0 ? 1 : 0;
+			int start = from + 1;
+			for (int i = 0; i < nChildren; i++) {
+				int end = start + rest / nChildren
+						+ (i < rest % nChildren ? 1 : 0);
+				long sub = write(start, end);
+				childPages[i] = start;
+				height = Math.max(height, 1 + (int) (sub >>> 32));
+				leaves += (int) sub;
+				start = end;
+			}
+
+			page.clear();
+			page.putInt(NUM_CHILDREN, nChildren);
+			page.putInt(SIZE, to - from);
+			page.putInt(HEIGHT, height);
+			page.putInt(LEAVES, leaves);
+			for (int i = 0; i < nChildren; i++)
+				page.putInt(CHILDREN + Integer.BYTES * i, childPages[i]);
+			codec.write(page, keyOffset(capacity), elem);
+			writeFully(channel, page, HEADER_SIZE + (long) from * slotSize);
+
+			return ((long) height << 32) | leaves;
+		}
+	}
+
+	/**
+	 * Opens a tree saved into a file. The file is mapped into memory and
+	 * queried in place; the tree cannot be changed
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 *
+	 * @param file
+	 *            The file with the tree
+	 * @param codec
+	 *            The encoding of the elements, as when the tree was saved
+	 * @throws IOException
+	 *             if the file cannot be read or does not keep a tree saved
+	 *             with the given codec
+	 * @return the read-only tree
+	 */
+	public static <T extends Comparable<T>> OffHeapNTree<T> open(Path file,
+			KeyCodec<T> codec) throws IOException {
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining())
+				if (channel.read(header, header.position()) < 0)
+					throw new IOException("not a tree file: " + file);
+			header.clear();
+
+			int capacity = header.getInt(8);
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+					|| capacity < 1)
+				throw new IOException("not a tree file: " + file);
+			if (header.getInt(12) != codec.width()
+					|| header.getInt(16) != slotSize(capacity, codec))
+				throw new IOException("tree saved with another codec: " + file);
+
+			OffHeapNTree<T> tree = new OffHeapNTree<>(capacity, codec, true);
+			tree.root = header.getInt(20);
+			tree.allocated = header.getInt(24);
+			tree.slots = tree.allocated;
+
+			if (channel.size() < HEADER_SIZE
+					+ (long) tree.allocated * tree.slotSize)
+				throw new IOException("truncated tree file: " + file);
+
+			int nChunks = Math.max(1, (tree.allocated + tree.slotsPerChunk - 1)
+					/ tree.slotsPerChunk);
+			tree.chunks = new ByteBuffer[nChunks];
+			for (int k = 0; k < nChunks; k++) {
+				long first = (long) k * tree.slotsPerChunk;
+				long pages = Math.min(tree.slotsPerChunk, tree.allocated - first);
+				tree.chunks[k] = channel.map(FileChannel.MapMode.READ_ONLY,
+						HEADER_SIZE + first * tree.slotSize,
+						pages * tree.slotSize);
+			}
+
+			return tree;
+		}
+	}
+
+	/**
+	 * Frees the memory of the tree, or unmaps its file, at once on JDK 9+;
+	 * on older JVMs this is left to the garbage collector. Any later use of
+	 * the tree fails
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(c), for c chunks
+	 */
+	public void close() {
+		ByteBuffer[] freed = chunks;
+		chunks = null;
+		if (freed != null)
+			for (ByteBuffer chunk : freed)
+				BufferCleaner.free(chunk);
+		root = NIL;
+		modCount++;
+	}
+
+	private void checkOpen() {
+		if (chunks == null)
+			throw new IllegalStateException("tree is closed");
+	}
+
+	private void checkWritable() {
+		checkOpen();
+		if (readOnly)
+			throw new UnsupportedOperationException("tree is read-only");
+	}
+
+	// slot access
+
+	private ByteBuffer chunk(int slot) {
+		return chunks[slot / slotsPerChunk];
+	}
+
+	private int offset(int slot) {
+		return (slot % slotsPerChunk) * slotSize;
+	}
+
+	private int get(int slot, int field) {
+		return chunk(slot).getInt(offset(slot) + field);
+	}
+
+	private void set(int slot, int field, int value) {
+		chunk(slot).putInt(offset(slot) + field, value);
+	}
+
+	private int child(int slot, int i) {
+		return get(slot, CHILDREN + Integer.BYTES * i);
+	}
+
+	private void setChild(int slot, int i, int child) {
+		set(slot, CHILDREN + Integer.BYTES * i, child);
+	}
+
+	private T key(int slot) {
+		return codec.read(chunk(slot), offset(slot) + keyOffset);
+	}
+
+	private void setKey(int slot, T elem) {
+		codec.write(chunk(slot), offset(slot) + keyOffset, elem);
+	}
+
+	// the stored key compared with elem
+	private int compare(int slot, T elem) {
+		return codec.compare(chunk(slot), offset(slot) + keyOffset, elem);
+	}
+
+	/**
+	 * Takes a slot from the free list, or after the last slot used, adding
+	 * space if needed
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(1), amortized
+	 *
+	 * @return the new leaf node
+	 */
+	private int newNode(T elem) {
+		int slot;
+		if (free != NIL) {
+			slot = free;
+			free = get(slot, SIZE);
+		} else {
+			if (allocated == slots)
+				grow();
+			slot = allocated++;
+		}
+
+		set(slot, NUM_CHILDREN, 0);
+		set(slot, SIZE, 1);
+		set(slot, HEIGHT, 1);
+		set(slot, LEAVES, 1);
+		setKey(slot, elem);
+		return slot;
+	}
+
+	private void freeNode(int slot) {
+		set(slot, SIZE, free);
+		free = slot;
+	}
+
+	/**
+	 * Doubles the first chunk until it reaches the maximum size, and then
+	 * adds new chunks
+	 */
+	private void grow() {
+		if (chunks.length == 1 && slots < slotsPerChunk) {
+			int newSlots = (int) Math.min((long) 2 * slots, slotsPerChunk);
+			ByteBuffer bigger = ByteBuffer.allocateDirect(newSlots * slotSize);
+			ByteBuffer old = chunks[0];
+			old.clear();
+			bigger.put(old);
+			bigger.clear();
+			chunks[0] = bigger;
+			BufferCleaner.free(old);
+			slots = newSlots;
+		} else {
+			chunks = Arrays.copyOf(chunks, chunks.length + 1);
+			chunks[chunks.length - 1] = ByteBuffer
+					.allocateDirect(slotsPerChunk * slotSize);
+			slots += slotsPerChunk;
+		}
+	}
+
+	private void updateCounters(int slot) {
+		int n = get(slot, NUM_CHILDREN);
+		int size = 1;
+		int height = 1;
+		int leaves = n == 0 ? 1 : 0;
+
+		for (int i = 0; i < n; i++) {
+			int child = child(slot, i);
+			size += get(child, SIZE);
+			height = Math.max(height, 1 + get(child, HEIGHT));
+			leaves += get(child, LEAVES);
+		}
+
+		set(slot, SIZE, size);
+		set(slot, HEIGHT, height);
+		set(slot, LEAVES, leaves);
+	}
+
+	public boolean isEmpty() {
+		checkOpen();
+		return root == NIL;
+	}
+
+	public boolean isLeaf() {
+		checkOpen();
+		return root != NIL && get(root, NUM_CHILDREN) == 0;
+	}
+
+	public int size() {
+		checkOpen();
+		return root == NIL ? 0 : get(root, SIZE);
+	}
+
+	public int countLeaves() {
+		checkOpen();
+		return root == NIL ? 0 : get(root, LEAVES);
+	}
+
+	public int height() {
+		checkOpen();
+		return root == NIL ? 0 : get(root, HEIGHT);
+	}
+
+	public T min() {
+		checkOpen();
+		return root == NIL ? null : key(root);
+	}
+
+	/**
+	 * The maximum value of the tree, found by following the last child of
+	 * each node
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 *
+	 * @return the maximum value, or null if the tree is empty
+	 */
+	public T max() {
+		checkOpen();
+		return root == NIL ? null : key(last(root));
+	}
+
+	private int last(int slot) {
+		int n;
+		while ((n = get(slot, NUM_CHILDREN)) > 0)
+			slot = child(slot, n - 1);
+
+		return slot;
+	}
+
+	/**
+	 * Finds, with a binary search, the last child of the node whose value is
+	 * before elem (or equal to it, if inclusive)
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(log capacity)
+	 *
+	 * @return the index of that child, or -1 if there is none
+	 */
+	private int findChild(int slot, T elem, boolean inclusive) {
+		int low = 0;
+		int high = get(slot, NUM_CHILDREN) - 1;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compare(child(slot, mid), elem);
+			if (cmp < 0 || (cmp == 0 && inclusive))
+				low = mid + 1;
+			else
+				high = mid - 1;
+		}
+
+		return high;
+	}
+
+	/**
+	 * Verifies is an element in in the tree
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 *
+	 * @param elem
+	 *            the element to be searched
+	 * @return true iff elem belongs to tree
+	 */
+	public boolean contains(T elem) {
+		checkOpen();
+		int slot = root;
+
+		while (slot != NIL) {
+			int cmp = compare(slot, elem);
+			if (cmp == 0)
+				return true;
+			if (cmp > 0)
+				return false;
+
+			int i = findChild(slot, elem, true);
+			slot = i < 0 ? NIL : child(slot, i);
+		}
+
+		return false;
+	}
+
+	public T floor(T elem) {
+		return floorOrLower(elem, true);
+	}
+
+	public T ceiling(T elem) {
+		return ceilingOrHigher(elem, true);
+	}
+
+	public T lower(T elem) {
+		return floorOrLower(elem, false);
+	}
+
+	public T higher(T elem) {
+		return ceilingOrHigher(elem, false);
+	}
+
+	// as in ArrayNTree, keeps the last value found before elem
+	private T floorOrLower(T elem, boolean inclusive) {
+		checkOpen();
+		int slot = root;
+		int result = NIL;
+
+		while (slot != NIL) {
+			int cmp = compare(slot, elem);
+			if (cmp == 0 && inclusive)
+				return key(slot);
+			if (cmp >= 0)
+				break;
+
+			result = slot;
+			int i = findChild(slot, elem, inclusive);
+			slot = i < 0 ? NIL : child(slot, i);
+		}
+
+		return result == NIL ? null : key(result);
+	}
+
+	// as in ArrayNTree, keeps the child following the path
+	private T ceilingOrHigher(T elem, boolean inclusive) {
+		checkOpen();
+		int slot = root;
+		int result = NIL;
+
+		while (slot != NIL) {
+			int cmp = compare(slot, elem);
+			if (cmp > 0 || (cmp == 0 && inclusive))
+				return key(slot);
+
+			int i = findChild(slot, elem, true);
+			if (i + 1 < get(slot, NUM_CHILDREN))
+				result = child(slot, i + 1);
+			slot = i < 0 ? NIL : child(slot, i);
+		}
+
+		return result == NIL ? null : key(result);
+	}
+
+	/**
+	 * Insert element into tree keeping the invariant If an element already
+	 * exists, the tree does not change
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 *
+	 * @param elem
+	 *            the element to be inserted
+	 */
+	public void insert(T elem) {
+		checkWritable();
+		if (!contains(elem)) {
+			if (root == NIL)
+				root = newNode(elem);
+			else
+				add(root, elem);
+			modCount++;
+		}
+	}
+
+	private void add(int slot, T elem) {
+		if (compare(slot, elem) > 0) {
+			insertSmallest(slot, elem);
+			return;
+		}
+
+		int i = findChild(slot, elem, true);
+		if (get(slot, NUM_CHILDREN) < capacity) {
+			if (i >= 0 && compare(last(child(slot, i)), elem) > 0)
+				add(child(slot, i), elem);
+			else
+				addChild(slot, i + 1, newNode(elem));
+		} else if (i >= 0) {
+			add(child(slot, i), elem);
+		} else {
+			insertSmallest(child(slot, 0), elem);
+		}
+		updateCounters(slot);
+		balance(slot);
+	}
+
+	private void insertSmallest(int slot, T elem) {
+		T old = key(slot);
+		setKey(slot, elem);
+
+		if (get(slot, NUM_CHILDREN) < capacity)
+			addChild(slot, 0, newNode(old));
+		else
+			insertSmallest(child(slot, 0), old);
+
+		updateCounters(slot);
+		balance(slot);
+	}
+
+	private void addChild(int slot, int pos, int child) {
+		int n = get(slot, NUM_CHILDREN);
+		for (int i = n; i > pos; i--)
+			setChild(slot, i, child(slot, i - 1));
+		setChild(slot, pos, child);
+		set(slot, NUM_CHILDREN, n + 1);
+	}
+
+	private void removeChild(int slot, int pos) {
+		int n = get(slot, NUM_CHILDREN);
+		for (int i = pos + 1; i < n; i++)
+			setChild(slot, i - 1, child(slot, i));
+		set(slot, NUM_CHILDREN, n - 1);
+	}
+
+	/**
+	 * Delete element from tree keeping the invariant If an element does not
+	 * exist, the tree does not change
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 *
+	 * @param elem
+	 *            the element to be deleted
+	 */
+	public void delete(T elem) {
+		checkWritable();
+		if (contains(elem)) {
+			if (remove(root, elem))
+				root = NIL;
+			modCount++;
+		}
+	}
+
+	// returns true iff the node was left empty, and so was freed
+	private boolean remove(int slot, T elem) {
+		int i;
+
+		if (compare(slot, elem) == 0) {
+			if (get(slot, NUM_CHILDREN) == 0) {
+				freeNode(slot);
+				return true;
+			}
+			elem = key(child(slot, 0));
+			setKey(slot, elem);
+			i = 0;
+		} else {
+			i = findChild(slot, elem, true);
+		}
+
+		if (remove(child(slot, i), elem))
+			removeChild(slot, i);
+
+		updateCounters(slot);
+		balance(slot);
+		return false;
+	}
+
+	/**
+	 * Rebuilds the subtree of a node as a balanced one if it became too tall
+	 * for its size, as ArrayNTree does. The node keeps its slot, and the
+	 * slots below it are reused for the new subtree
+	 *
+	 * @best-case O(log n)
+	 * @worst-case O(n)
+	 */
+	private void balance(int slot) {
+		if (!ArrayNTree.isTooTall(get(slot, SIZE), get(slot, HEIGHT),
+				capacity))
+			return;
+
+		List<T> elems = new ArrayList<>(get(slot, SIZE));
+		collect(slot, elems);
+		for (int i = 0; i < get(slot, NUM_CHILDREN); i++)
+			freeSubtree(child(slot, i));
+		fill(slot, elems, 0, elems.size(),
+				ArrayNTree.balancedFanOut(capacity));
+	}
+
+	private void collect(int slot, List<T> elems) {
+		elems.add(key(slot));
+		for (int i = 0; i < get(slot, NUM_CHILDREN); i++)
+			collect(child(slot, i), elems);
+	}
+
+	private void freeSubtree(int slot) {
+		for (int i = 0; i < get(slot, NUM_CHILDREN); i++)
+			freeSubtree(child(slot, i));
+		freeNode(slot);
+	}
+
+	/**
+	 * Makes a node the root of the subtree with the sorted elements
+	 * elems[from..to[, split among its children as ArrayNTree.build does
+	 */
+	private void fill(int slot, List<T> elems, int from, int to, int fanOut) {
+		setKey(slot, elems.get(from));
+
+		int rest = to - from - 1;
+		int nChildren = Math.min(fanOut, rest);
+		int start = from + 1;
+		for (int i = 0; i < nChildren; i++) {
+			int end = start + rest / nChildren + (i < rest % nChildren ? 1 : 0);
+			int child = newNode(elems.get(start));
+			fill(child, elems, start, end, fanOut);
+			setChild(slot, i, child);
+			start = end;
+		}
+		set(slot, NUM_CHILDREN, nChildren);
+		updateCounters(slot);
+	}
+
+	public boolean insertAll(Collection<? extends T> elems) {
+		checkWritable();
+		List<T> batch = new ArrayList<>(elems);
+		Collections.sort(batch);
+
+		int prevSize = size();
+		for (T elem : batch)
+			insert(elem);
+		return size() != prevSize;
+	}
+
+	public boolean deleteAll(Collection<? extends T> elems) {
+		checkWritable();
+		List<T> batch = new ArrayList<>(elems);
+		Collections.sort(batch);
+
+		int prevSize = size();
+		for (T elem : batch)
+			delete(elem);
+		return size() != prevSize;
+	}
+
+	public boolean retainAll(Collection<? extends T> elems) {
+		checkWritable();
+		Set<T> keep = new TreeSet<>(elems);
+		List<T> others = new ArrayList<>();
+		for (T elem : this)
+			if (!keep.contains(elem))
+				others.add(elem);
+
+		for (T elem : others)
+			delete(elem);
+		return !others.isEmpty();
+	}
+
+	public List<T> toList() {
+		List<T> list = new ArrayList<>(size());
+		for (T elem : this)
+			list.add(elem);
+		return list;
+	}
+
+	@SuppressWarnings("unchecked")
+	public T[] toArray(T[] array) {
+		int size = size();
+		if (array.length < size)
+			array = (T[]) Array.newInstance(
+					array.getClass().getComponentType(), size);
+
+		int i = 0;
+		for (T elem : this)
+			array[i++] = elem;
+		if (array.length > size)
+			array[size] = null;
+
+		return array;
+	}
+
+	public String toString() {
+		checkOpen();
+		StringBuilder sb = new StringBuilder();
+		if (root == NIL)
+			sb.append("[]");
+		else
+			appendTo(root, sb);
+		return sb.toString();
+	}
+
+	private void appendTo(int slot, StringBuilder sb) {
+		int n = get(slot, NUM_CHILDREN);
+		sb.append('[').append(key(slot));
+		if (n > 0) {
+			sb.append(':');
+			for (int i = 0; i < n; i++)
+				appendTo(child(slot, i), sb);
+		}
+		sb.append(']');
+	}
+
+	/**
+	 * @returns an iterator traversing elements in a increasing order
+	 */
+	public Iterator<T> iterator() {
+		return rangeIterator(null, true, null, true);
+	}
+
+	/**
+	 * An iterator over the elements between two bounds, in increasing order.
+	 * Only the nodes on the path to the first element and those holding the
+	 * elements returned are visited
+	 *
+	 * @best-case O(log n)
+	 * @worst-case O(log n + k), for k elements returned
+	 *
+	 * @param from
+	 *            the lower bound, or null if there is none
+	 * @param fromInclusive
+	 *            true if the lower bound may be returned
+	 * @param to
+	 *            the upper bound, or null if there is none
+	 * @param toInclusive
+	 *            true if the upper bound may be returned
+	 * @returns an iterator traversing the elements in the range
+	 */
+	public Iterator<T> rangeIterator(T from, boolean fromInclusive, T to,
+			boolean toInclusive) {
+		checkOpen();
+		return new OffHeapNTreeIterator(from, fromInclusive, to, toInclusive);
+	}
+
+	/**
+	 * The number of elements between two bounds, from the sizes of the
+	 * subtrees on the paths to both bounds
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 *
+	 * @param from
+	 *            the lower bound, or null if there is none
+	 * @param fromInclusive
+	 *            true if the lower bound is to be counted
+	 * @param to
+	 *            the upper bound, or null if there is none
+	 * @param toInclusive
+	 *            true if the upper bound is to be counted
+	 * @return the number of elements in range
+	 */
+	public int countInRange(T from, boolean fromInclusive, T to,
+			boolean toInclusive) {
+		checkOpen();
+		int upTo = to == null ? size() : countBelow(to, toInclusive);
+		int below = from == null ? 0 : countBelow(from, !fromInclusive);
+		return Math.max(0, upTo - below);
+	}
+
+	// the number of elements less than (or equal to, if inclusive) elem
+	private int countBelow(T elem, boolean inclusive) {
+		int count = 0;
+		int slot = root;
+
+		while (slot != NIL) {
+			int cmp = compare(slot, elem);
+			if (cmp > 0 || (cmp == 0 && !inclusive))
+				break;
+
+			count++;
+			int i = findChild(slot, elem, inclusive);
+			for (int j = 0; j < i; j++)
+				count += get(child(slot, j), SIZE);
+			slot = i < 0 ? NIL : child(slot, i);
+		}
+
+		return count;
+	}
+
+	/**
+	 * The number of elements of the tree less than the given one
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(capacity log n)
+	 *
+	 * @param elem
+	 *            the element to be compared
+	 * @return the number of elements < elem
+	 */
+	public int rank(T elem) {
+		checkOpen();
+		return countBelow(elem, false);
+	}
+
+	/**
+	 * The k-th smallest element of the tree, counting from zero. The slots
+	 * keep no offsets of their children, so their sizes are added up
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(capacity log n)
+	 *
+	 * @param k
+	 *            the rank of the element
+	 * @throws IndexOutOfBoundsException
+	 *             if k < 0 or k >= size()
+	 * @return the element with rank k
+	 */
+	public T select(int k) {
+		int size = size();
+		if (k < 0 || k >= size)
+			throw new IndexOutOfBoundsException("rank: " + k + ", size: "
+					+ size);
+
+		int slot = root;
+		while (k > 0) {
+			// skip the node itself, then whole children
+			k--;
+			int i = 0;
+			int child = child(slot, 0);
+			while (k >= get(child, SIZE)) {
+				k -= get(child, SIZE);
+				child = child(slot, ++i);
+			}
+			slot = child;
+		}
+
+		return key(slot);
+	}
+
+	/**
+	 * Lazy prefix traversal. It keeps the next node to visit and the path of
+	 * nodes already visited above it, each with the next child to visit
+	 */
+	private class OffHeapNTreeIterator implements Iterator<T> {
+
+		private int[] nodes;
+		private int[] nextChild;
+		private int depth;
+		private int next = NIL;
+		private final T to;
+		private final boolean toInclusive;
+		private int expectedModCount = modCount;
+
+		public OffHeapNTreeIterator(T from, boolean fromInclusive, T to,
+				boolean toInclusive) {
+			this.to = to;
+			this.toInclusive = toInclusive;
+
+			int maxDepth = Math.max(1, height());
+			nodes = new int[maxDepth];
+			nextChild = new int[maxDepth];
+
+			// descend to the first element in range, skipping the children
+			// before the path
+			int slot = root;
+			while (slot != NIL) {
+				int cmp = from == null ? 1 : compare(slot, from);
+				if (cmp > 0 || (cmp == 0 && fromInclusive)) {
+					next = slot;
+					break;
+				}
+
+				int i = findChild(slot, from, true);
+				push(slot, i + 1);
+				slot = i < 0 ? NIL : child(slot, i);
+			}
+
+			if (next == NIL)
+				next = advance();
+			checkUpperBound();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != NIL;
+		}
+
+		@Override
+		public T next() {
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+
+			if (!this.hasNext())
+				throw new NoSuchElementException();
+
+			T element = key(next);
+			push(next, 0);
+			next = advance();
+			checkUpperBound();
+
+			return element;
+		}
+
+		// the first child not yet visited of the deepest visited node
+		private int advance() {
+			while (depth > 0) {
+				int slot = nodes[depth - 1];
+				int i = nextChild[depth - 1];
+				if (i < get(slot, NUM_CHILDREN)) {
+					nextChild[depth - 1]++;
+					return child(slot, i);
+				}
+				depth--;
+			}
+			return NIL;
+		}
+
+		private void checkUpperBound() {
+			if (next != NIL && to != null) {
+				int cmp = compare(next, to);
+				if (cmp > 0 || (cmp == 0 && !toInclusive))
+					next = NIL;
+			}
+		}
+
+		private void push(int slot, int firstChild) {
+			if (depth == nodes.length) {
+				nodes = Arrays.copyOf(nodes, 2 * depth);
+				nextChild = Arrays.copyOf(nextChild, 2 * depth);
+			}
+			nodes[depth] = slot;
+			nextChild[depth] = firstChild;
+			depth++;
+		}
+	}
+
+}
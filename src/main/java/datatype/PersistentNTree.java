@@ -0,0 +1,721 @@
+package main.java.datatype;
+
+import java.lang.reflect.Array;
+import java.util.*;
+
+/**
+ * An immutable n-tree. Instead of changing the tree, with and without give
+ * a new version of it, which shares with this one every node off the path
+ * to the changed element (path copying), so each version costs O(log n)
+ * new nodes and old versions stay valid forever. As nothing ever changes,
+ * any number of threads may read a version with no locking at all.
+ *
+ * The nodes have the same structure as ArrayNTree's and the new versions
+ * are built by the same algorithms, so the same insertions and deletions
+ * give the same tree. The mutators of NTree are not supported.
+ *
+ * @param <T> The type of elements kept in the n-tree
+ */
+public final class PersistentNTree<T extends Comparable<T>> implements
+		NTree<T> {
+
+	/**
+	 * An immutable node. Its children array has no free positions, so it is
+	 * copied, one position larger or smaller, when a child is added or
+	 * removed
+	 */
+	private static final class Node<T extends Comparable<T>> {
+
+		final T data;
+		final Node<T>[] children;
+		final int size;
+		final int height;
+		final int leaves;
+		// offsets[i] is the number of elements before the subtree of
+		// children[i], as in ArrayNTree; null for leaves
+		final int[] offsets;
+
+		Node(T data, Node<T>[] children) {
+			this.data = data;
+			this.children = children;
+
+			int size = 1;
+			int height = 1;
+			int leaves = children.length == 0 ? 1 : 0;
+			int[] offsets = children.length == 0 ? null
+					: new int[children.length];
+			for (int i = 0; i < children.length; i++) {
+				offsets[i] = size;
+				size += children[i].size;
+				height = Math.max(height, 1 + children[i].height);
+				leaves += children[i].leaves;
+			}
+
+			this.size = size;
+			this.height = height;
+			this.leaves = leaves;
+			this.offsets = offsets;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static final Node[] NO_CHILDREN = new Node[0];
+
+	private final int capacity;
+	// null if the tree is empty
+	private final Node<T> root;
+
+	/**
+	 * Creates an empty tree
+	 * 
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 * 
+	 * @param capacity
+	 *            The capacity of each node, ie, the maximum number of direct
+	 *            successors
+	 */
+	public PersistentNTree(int capacity) {
+		this(capacity, null);
+	}
+
+	private PersistentNTree(int capacity, Node<T> root) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+		this.capacity = capacity;
+		this.root = root;
+	}
+
+	/**
+	 * Creates a balanced tree with the elements of the given collection, as
+	 * ArrayNTree.bulkLoad does with a fill factor of 1. Repeated elements
+	 * are discarded
+	 * 
+	 * @best-case O(n log n)
+	 * @worst-case O(n log n)
+	 * 
+	 * @param elems
+	 *            The elements of the tree
+	 * @param capacity
+	 *            The capacity of each node, ie, the maximum number of direct
+	 *            successors
+	 * @return the new tree
+	 */
+	public static <T extends Comparable<T>> PersistentNTree<T> bulkLoad(
+			Collection<? extends T> elems, int capacity) {
+		List<T> sorted = new ArrayList<>(new TreeSet<T>(elems));
+		return new PersistentNTree<>(capacity, sorted.isEmpty() ? null
+				: build(sorted, 0, sorted.size(), capacity));
+	}
+
+	private static <T extends Comparable<T>> Node<T> build(List<T> sorted,
+			int from, int to, int capacity) {
+		int rest = to - from - 1;
+		int nChildren = Math.min(capacity, rest);
+		Node<T>[] children = newChildren(nChildren);
+		int start = from + 1;
+		for (int i = 0; i < nChildren; i++) {
+			int end = start + rest / nChildren + (i < rest % nChildren ? 1 : 0);
+			children[i] = build(sorted, start, end, capacity);
+			start = end;
+		}
+		return new Node<>(sorted.get(from), children);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends Comparable<T>> Node<T>[] newChildren(int n) {
+		return n == 0 ? NO_CHILDREN : newNodes(n);
+	}
+
+	// generic arrays cannot be created, so a raw one is created and cast
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <T extends Comparable<T>> Node<T>[] newNodes(int n) {
+		return new Node[n];
+	}
+
+	private static <T extends Comparable<T>> Node<T> leaf(T elem) {
+		return new Node<>(elem, newChildren(0));
+	}
+
+	// versions
+
+	/**
+	 * A version of the tree with the given element
+	 * 
+	 * @best-case O(log n)
+	 * @worst-case O(n), when a subtree is rebuilt by balanced; amortized
+	 *             O(capacity log^2 n)
+	 * 
+	 * @param elem
+	 *            the element to be inserted
+	 * @return the new version, or this tree if elem is already in it
+	 */
+	public PersistentNTree<T> with(T elem) {
+		if (root == null)
+			return new PersistentNTree<>(capacity, leaf(elem));
+		if (contains(elem))
+			return this;
+		return new PersistentNTree<>(capacity, add(root, elem));
+	}
+
+	/**
+	 * A version of the tree without the given element
+	 * 
+	 * @best-case O(log n)
+	 * @worst-case O(n), when a subtree is rebuilt by balanced; amortized
+	 *             O(capacity log^2 n)
+	 * 
+	 * @param elem
+	 *            the element to be deleted
+	 * @return the new version, or this tree if elem is not in it
+	 */
+	public PersistentNTree<T> without(T elem) {
+		if (!contains(elem))
+			return this;
+		return new PersistentNTree<>(capacity, remove(root, elem));
+	}
+
+	/**
+	 * A version of the tree with all the given elements
+	 * 
+	 * @best-case O(m log n)
+	 * @worst-case O(m n); amortized O(m capacity log^2 n)
+	 * 
+	 * @param elems
+	 *            the elements to be inserted
+	 * @return the new version, or this tree if it has all of them already
+	 */
+	public PersistentNTree<T> withAll(Collection<? extends T> elems) {
+		PersistentNTree<T> tree = this;
+		for (T elem : elems)
+			tree = tree.with(elem);
+		return tree;
+	}
+
+	/**
+	 * A version of the tree without any of the given elements
+	 * 
+	 * @best-case O(m log n)
+	 * @worst-case O(m n); amortized O(m capacity log^2 n)
+	 * 
+	 * @param elems
+	 *            the elements to be deleted
+	 * @return the new version, or this tree if it has none of them
+	 */
+	public PersistentNTree<T> withoutAll(Collection<? extends T> elems) {
+		PersistentNTree<T> tree = this;
+		for (T elem : elems)
+			tree = tree.without(elem);
+		return tree;
+	}
+
+	/**
+	 * A version of the tree with only the elements in the given collection
+	 * 
+	 * @best-case O(n)
+	 * @worst-case O(n^2); amortized O(n log m + n capacity log^2 n)
+	 * 
+	 * @param elems
+	 *            the elements to be kept
+	 * @return the new version, or this tree if it has no other elements
+	 */
+	public PersistentNTree<T> retaining(Collection<? extends T> elems) {
+		Set<T> keep = new TreeSet<>(elems);
+		PersistentNTree<T> tree = this;
+		for (T elem : this)
+			if (!keep.contains(elem))
+				tree = tree.without(elem);
+		return tree;
+	}
+
+	/**
+	 * Adds an element to the subtree, as ArrayNTree.add does
+	 * 
+	 * @requires elem is not in the subtree
+	 * @return the new root of the subtree
+	 */
+	private Node<T> add(Node<T> node, T elem) {
+		if (elem.compareTo(node.data) < 0)
+			return insertSmallest(node, elem);
+
+		Node<T>[] children = node.children;
+		int i = findChild(node, elem, true);
+		if (children.length < capacity) {
+			if (i >= 0 && elem.compareTo(max(children[i])) < 0)
+				return balanced(node.data, replaced(children, i,
+						add(children[i], elem)));
+			return balanced(node.data, inserted(children, i + 1, leaf(elem)));
+		} else if (i >= 0) {
+			return balanced(node.data, replaced(children, i,
+					add(children[i], elem)));
+		} else {
+			return balanced(node.data, replaced(children, 0,
+					insertSmallest(children[0], elem)));
+		}
+	}
+
+	/**
+	 * Adds an element smaller than every element of the subtree, pushing
+	 * the node's value down, as ArrayNTree.insertSmallest does
+	 * 
+	 * @return the new root of the subtree
+	 */
+	private Node<T> insertSmallest(Node<T> node, T elem) {
+		Node<T>[] children = node.children;
+		if (children.length < capacity)
+			return balanced(elem, inserted(children, 0, leaf(node.data)));
+		return balanced(elem, replaced(children, 0,
+				insertSmallest(children[0], node.data)));
+	}
+
+	/**
+	 * Removes an element from the subtree, promoting the first child's value
+	 * when it is the node's, as ArrayNTree.remove does
+	 * 
+	 * @requires elem is in the subtree
+	 * @return the new root of the subtree, or null if it became empty
+	 */
+	private Node<T> remove(Node<T> node, T elem) {
+		Node<T>[] children = node.children;
+		T data = node.data;
+		int i;
+
+		if (elem.compareTo(data) == 0) {
+			if (children.length == 0)
+				return null;
+			data = children[0].data;
+			elem = data;
+			i = 0;
+		} else {
+			i = findChild(node, elem, true);
+		}
+
+		Node<T> child = remove(children[i], elem);
+		return balanced(data, child == null ? removed(children, i)
+				: replaced(children, i, child));
+	}
+
+	/**
+	 * A new node, rebuilt as a balanced subtree if it is too tall for its
+	 * size, as ArrayNTree.balance does
+	 * 
+	 * @best-case O(log n)
+	 * @worst-case O(n)
+	 * 
+	 * @return the root of the subtree
+	 */
+	private Node<T> balanced(T data, Node<T>[] children) {
+		Node<T> node = new Node<>(data, children);
+		if (!ArrayNTree.isTooTall(node.size, node.height, capacity))
+			return node;
+
+		List<T> elems = new ArrayList<>(node.size);
+		addTo(node, elems);
+		return build(elems, 0, elems.size(),
+				ArrayNTree.balancedFanOut(capacity));
+	}
+
+	private static <T extends Comparable<T>> Node<T>[] replaced(
+			Node<T>[] children, int pos, Node<T> child) {
+		Node<T>[] result = children.clone();
+		result[pos] = child;
+		return result;
+	}
+
+	private static <T extends Comparable<T>> Node<T>[] inserted(
+			Node<T>[] children, int pos, Node<T> child) {
+		Node<T>[] result = newChildren(children.length + 1);
+		System.arraycopy(children, 0, result, 0, pos);
+		result[pos] = child;
+		System.arraycopy(children, pos, result, pos + 1, children.length
+				- pos);
+		return result;
+	}
+
+	private static <T extends Comparable<T>> Node<T>[] removed(
+			Node<T>[] children, int pos) {
+		Node<T>[] result = newChildren(children.length - 1);
+		System.arraycopy(children, 0, result, 0, pos);
+		System.arraycopy(children, pos + 1, result, pos, children.length
+				- pos - 1);
+		return result;
+	}
+
+	/**
+	 * The last child of the node whose value is before elem (or equal to it,
+	 * if inclusive)
+	 * 
+	 * @return the index of that child, or -1 if there is none
+	 */
+	private static <T extends Comparable<T>> int findChild(Node<T> node,
+			T elem, boolean inclusive) {
+		int low = 0;
+		int high = node.children.length - 1;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = node.children[mid].data.compareTo(elem);
+			if (cmp < 0 || (cmp == 0 && inclusive))
+				low = mid + 1;
+			else
+				high = mid - 1;
+		}
+
+		return high;
+	}
+
+	private static <T extends Comparable<T>> T max(Node<T> node) {
+		while (node.children.length > 0)
+			node = node.children[node.children.length - 1];
+		return node.data;
+	}
+
+	// queries
+
+	public boolean isEmpty() {
+		return root == null;
+	}
+
+	public boolean isLeaf() {
+		return root != null && root.children.length == 0;
+	}
+
+	public int size() {
+		return root == null ? 0 : root.size;
+	}
+
+	public int countLeaves() {
+		return root == null ? 0 : root.leaves;
+	}
+
+	public int height() {
+		return root == null ? 0 : root.height;
+	}
+
+	public T min() {
+		return root == null ? null : root.data;
+	}
+
+	public T max() {
+		return root == null ? null : max(root);
+	}
+
+	public T floor(T elem) {
+		return floorOrLower(elem, true);
+	}
+
+	public T lower(T elem) {
+		return floorOrLower(elem, false);
+	}
+
+	public T ceiling(T elem) {
+		return ceilingOrHigher(elem, true);
+	}
+
+	public T higher(T elem) {
+		return ceilingOrHigher(elem, false);
+	}
+
+	private T floorOrLower(T elem, boolean inclusive) {
+		Node<T> node = root;
+		T result = null;
+
+		while (node != null) {
+			int cmp = elem.compareTo(node.data);
+			if (cmp == 0 && inclusive)
+				return node.data;
+			if (cmp <= 0)
+				return result;
+
+			result = node.data;
+			int i = findChild(node, elem, inclusive);
+			node = i < 0 ? null : node.children[i];
+		}
+
+		return result;
+	}
+
+	private T ceilingOrHigher(T elem, boolean inclusive) {
+		Node<T> node = root;
+		T result = null;
+
+		while (node != null) {
+			int cmp = elem.compareTo(node.data);
+			if (cmp < 0 || (cmp == 0 && inclusive))
+				return node.data;
+
+			int i = findChild(node, elem, true);
+			if (i + 1 < node.children.length)
+				result = node.children[i + 1].data;
+			node = i < 0 ? null : node.children[i];
+		}
+
+		return result;
+	}
+
+	public boolean contains(T elem) {
+		Node<T> node = root;
+
+		while (node != null) {
+			int cmp = elem.compareTo(node.data);
+			if (cmp == 0)
+				return true;
+			if (cmp < 0)
+				return false;
+
+			int i = findChild(node, elem, true);
+			node = i < 0 ? null : node.children[i];
+		}
+
+		return false;
+	}
+
+	public int rank(T elem) {
+		return countBelow(elem, false);
+	}
+
+	public T select(int k) {
+		if (k < 0 || k >= size())
+			throw new IndexOutOfBoundsException("rank: " + k + ", size: "
+					+ size());
+
+		Node<T> node = root;
+		while (k > 0) {
+			int low = 1;
+			int high = node.children.length - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (node.offsets[mid] <= k)
+					low = mid + 1;
+				else
+					high = mid - 1;
+			}
+
+			k -= node.offsets[high];
+			node = node.children[high];
+		}
+
+		return node.data;
+	}
+
+	public int countInRange(T from, boolean fromInclusive, T to,
+			boolean toInclusive) {
+		int upTo = to == null ? size() : countBelow(to, toInclusive);
+		int below = from == null ? 0 : countBelow(from, !fromInclusive);
+		return Math.max(0, upTo - below);
+	}
+
+	// the number of elements less than (or equal to, if inclusive) elem
+	private int countBelow(T elem, boolean inclusive) {
+		int count = 0;
+		Node<T> node = root;
+
+		while (node != null) {
+			int cmp = node.data.compareTo(elem);
+			if (cmp > 0 || (cmp == 0 && !inclusive))
+				break;
+
+			int i = findChild(node, elem, inclusive);
+			if (i < 0)
+				return count + 1;
+			count += node.offsets[i];
+			node = node.children[i];
+		}
+
+		return count;
+	}
+
+	// the mutators of NTree
+
+	/**
+	 * @throws UnsupportedOperationException
+	 *             always, as the tree cannot change; use with
+	 */
+	public void insert(T elem) {
+		throw new UnsupportedOperationException("immutable tree, use with");
+	}
+
+	/**
+	 * @throws UnsupportedOperationException
+	 *             always, as the tree cannot change; use without
+	 */
+	public void delete(T elem) {
+		throw new UnsupportedOperationException("immutable tree, use without");
+	}
+
+	/**
+	 * @throws UnsupportedOperationException
+	 *             always, as the tree cannot change; use withAll
+	 */
+	public boolean insertAll(Collection<? extends T> elems) {
+		throw new UnsupportedOperationException("immutable tree, use withAll");
+	}
+
+	/**
+	 * @throws UnsupportedOperationException
+	 *             always, as the tree cannot change; use withoutAll
+	 */
+	public boolean deleteAll(Collection<? extends T> elems) {
+		throw new UnsupportedOperationException(
+				"immutable tree, use withoutAll");
+	}
+
+	/**
+	 * @throws UnsupportedOperationException
+	 *             always, as the tree cannot change; use retaining
+	 */
+	public boolean retainAll(Collection<? extends T> elems) {
+		throw new UnsupportedOperationException(
+				"immutable tree, use retaining");
+	}
+
+	// conversions
+
+	public List<T> toList() {
+		List<T> list = new ArrayList<>(size());
+		if (root != null)
+			addTo(root, list);
+		return list;
+	}
+
+	private static <T extends Comparable<T>> void addTo(Node<T> node,
+			List<T> list) {
+		list.add(node.data);
+		for (Node<T> child : node.children)
+			addTo(child, list);
+	}
+
+	@SuppressWarnings("unchecked")
+	public T[] toArray(T[] array) {
+		int size = size();
+		if (array.length < size)
+			array = (T[]) Array.newInstance(
+					array.getClass().getComponentType(), size);
+
+		int i = 0;
+		for (T elem : this)
+			array[i++] = elem;
+		if (array.length > size)
+			array[size] = null;
+
+		return array;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		if (root == null)
+			sb.append("[]");
+		else
+			appendTo(root, sb);
+		return sb.toString();
+	}
+
+	private static <T extends Comparable<T>> void appendTo(Node<T> node,
+			StringBuilder sb) {
+		sb.append('[').append(node.data);
+		if (node.children.length > 0) {
+			sb.append(':');
+			for (Node<T> child : node.children)
+				appendTo(child, sb);
+		}
+		sb.append(']');
+	}
+
+	public Iterator<T> iterator() {
+		return rangeIterator(null, true, null, true);
+	}
+
+	public Iterator<T> rangeIterator(T from, boolean fromInclusive, T to,
+			boolean toInclusive) {
+		return new PersistentNTreeIterator(from, fromInclusive, to,
+				toInclusive);
+	}
+
+	/**
+	 * Lazy prefix traversal, as ArrayNTree's: the top of the stack is the
+	 * next node to visit, below it the nodes already visited with the next
+	 * child to visit. The version never changes, so there is nothing to
+	 * check
+	 */
+	private class PersistentNTreeIterator implements Iterator<T> {
+
+		private Node<T>[] nodes;
+		private int[] nextChild;
+		private int depth;
+		private final T to;
+		private final boolean toInclusive;
+
+		PersistentNTreeIterator(T from, boolean fromInclusive, T to,
+				boolean toInclusive) {
+			this.to = to;
+			this.toInclusive = toInclusive;
+
+			int maxDepth = Math.max(1, height());
+			nodes = newNodes(maxDepth);
+			nextChild = new int[maxDepth];
+
+			Node<T> node = root;
+			while (node != null) {
+				push(node);
+				int cmp = from == null ? 1 : node.data.compareTo(from);
+				if (cmp > 0 || (cmp == 0 && fromInclusive))
+					break;
+
+				int i = findChild(node, from, true);
+				nextChild[depth - 1] = i + 1;
+				node = i < 0 ? null : node.children[i];
+				if (node == null)
+					advance();
+			}
+			checkUpperBound();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return depth > 0;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			T element = nodes[depth - 1].data;
+			advance();
+			checkUpperBound();
+			return element;
+		}
+
+		private void advance() {
+			while (depth > 0) {
+				Node<T> node = nodes[depth - 1];
+				int i = nextChild[depth - 1];
+				if (i < node.children.length) {
+					nextChild[depth - 1]++;
+					push(node.children[i]);
+					return;
+				}
+				nodes[--depth] = null;
+			}
+		}
+
+		private void checkUpperBound() {
+			if (depth > 0 && to != null) {
+				int cmp = nodes[depth - 1].data.compareTo(to);
+				if (cmp > 0 || (cmp == 0 && !toInclusive))
+					depth = 0;
+			}
+		}
+
+		private void push(Node<T> node) {
+			if (depth == nodes.length) {
+				nodes = Arrays.copyOf(nodes, 2 * depth);
+				nextChild = Arrays.copyOf(nextChild, 2 * depth);
+			}
+			nodes[depth] = node;
+			nextChild[depth] = 0;
+			depth++;
+		}
+	}
+
+}
@@ -0,0 +1,752 @@
+package main.java.datatype;
+
+import java.util.*;
+import java.util.function.IntToLongFunction;
+
+/**
+ * The n-tree shared by IntArrayNTree and LongArrayNTree, which only differ in
+ * the type of their keys: every search and change of the tree is done here,
+ * on keys widened to long, and the subclasses only keep the keys.
+ *
+ * Instead of one object per node, the nodes live in parallel primitive
+ * arrays indexed by node number (a struct of arrays), which keep the
+ * counters of each node. Only internal nodes have children, so these live in
+ * a second pool, of blocks with room for capacity children: the children of
+ * node k are children[b * capacity .. b * capacity + numChildren[b][, for
+ * block b = inner[k], and a leaf has no block at all. So a leaf costs its
+ * key and its counters only.
+ *
+ * Each key is kept once, in the block of the parent of its node: the key of
+ * the i-th child in block b is at position keyPos(b, i), next to the keys of
+ * its siblings, and the key of the root is at position ROOT_KEY. So a node
+ * is reached together with the position of its key.
+ *
+ * Nodes and blocks removed from the tree are kept in free lists, linked
+ * through the size of the node and the first child of the block, and reused
+ * by later insertions.
+ */
+abstract class PrimitiveArrayNTree {
+
+	// no node or block, eg the root of an empty tree or the block of a leaf
+	private static final int NIL = -1;
+
+	// the position of the key of the root
+	protected static final int ROOT_KEY = 0;
+
+	// the number of nodes of the first pool
+	private static final int INITIAL_NODES = 16;
+
+	protected final int capacity;
+
+	// the node pool; a free node keeps the next free node as its size
+	private int[] inner;
+	private int[] sizes;
+	private int[] heights;
+	private int[] leaves;
+	private int allocatedNodes;
+	private int freeNodes = NIL;
+
+	// the block pool; a free block keeps the next free block as its first
+	// child
+	private int[] children;
+	private int[] numChildren;
+	private int allocatedBlocks;
+	private int freeBlocks = NIL;
+
+	private int root = NIL;
+
+	// number of changes made through this tree, used by its iterators to
+	// detect concurrent modifications
+	private int modCount;
+
+	/**
+	 * Creates an empty tree. The pools are allocated by the first insertion
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 *
+	 * @param capacity
+	 *            The capacity of each node, ie, the maximum number of direct
+	 *            successors
+	 */
+	protected PrimitiveArrayNTree(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+
+		this.capacity = capacity;
+	}
+
+	/**
+	 * The key at a position
+	 */
+	protected abstract long key(int pos);
+
+	/**
+	 * Sets the key at a position to a value of the subclass' type
+	 */
+	protected abstract void setKey(int pos, long key);
+
+	/**
+	 * Moves length keys from one position to another, as System.arraycopy
+	 */
+	protected abstract void moveKeys(int from, int to, int length);
+
+	/**
+	 * Finds the last of the sorted keys at positions from .. from + length[
+	 * that is not greater than elem
+	 *
+	 * @return its index from the first position, or -1 if there is none
+	 */
+	protected abstract int lastNotGreater(int from, int length, long elem);
+
+	/**
+	 * Resizes the keys to the given number of positions, keeping the keys in
+	 * use
+	 */
+	protected abstract void resizeKeys(int positions);
+
+	/**
+	 * The number of children of each node of a balanced tree built with the
+	 * given fill factor, as in ArrayNTree.bulkLoad
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the fill factor is not in ]0, 1]
+	 */
+	protected static int fanOut(int capacity, double fillFactor) {
+		if (!(fillFactor > 0 && fillFactor <= 1))
+			throw new IllegalArgumentException("fill factor must be in ]0, 1]");
+
+		return Math.max(1, (int) Math.ceil(capacity * fillFactor));
+	}
+
+	/**
+	 * Makes this empty tree the balanced tree of n sorted and distinct
+	 * elements, built bottom-up with fanOut children per node
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(n)
+	 */
+	protected void load(IntToLongFunction elems, int n, int fanOut) {
+		if (n > 0) {
+			ensureNodeCapacity(n);
+			root = allocateNode();
+			fill(root, ROOT_KEY, elems, 0, n, fanOut);
+		}
+	}
+
+	/**
+	 * Makes a node without children the root of the subtree built with the
+	 * sorted elements from..to[, splitting the elements after the first one
+	 * in ranges of (almost) the same size. The key of the node is kept at the
+	 * given position
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(n)
+	 */
+	private void fill(int node, int pos, IntToLongFunction elems, int from,
+			int to, int fanOut) {
+		setKey(pos, elems.applyAsLong(from));
+
+		int rest = to - from - 1;
+		int nChildren = Math.min(fanOut, rest);
+		if (nChildren > 0) {
+			int block = allocateBlock();
+			inner[node] = block;
+			numChildren[block] = nChildren;
+
+			int start = from + 1;
+			for (int i = 0; i < nChildren; i++) {
+				int end = start + rest / nChildren
+						+ (i < rest % nChildren ? 1 : 0);
+				int child = allocateNode();
+				children[block * capacity + i] = child;
+				fill(child, keyPos(block, i), elems, start, end, fanOut);
+				start = end;
+			}
+		}
+		updateCounters(node);
+	}
+
+	/**
+	 * Verifies if tree is empty
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 *
+	 * @return true iff tree is empty
+	 */
+	public boolean isEmpty() {
+		return root == NIL;
+	}
+
+	/**
+	 * Verifies if tree is a leaf, ie, only has one element
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 *
+	 * @return true iff tree is a leaf
+	 */
+	public boolean isLeaf() {
+		return root != NIL && inner[root] == NIL;
+	}
+
+	/**
+	 * The number of elements of a tree. An empty tree has zero elements
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 *
+	 * @return the number of elements
+	 */
+	public int size() {
+		return root == NIL ? 0 : sizes[root];
+	}
+
+	/**
+	 * Count the number of leaves. An empty tree has zero leaves
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 *
+	 * @return the number of leaves
+	 */
+	public int countLeaves() {
+		return root == NIL ? 0 : leaves[root];
+	}
+
+	/**
+	 * The tree's height. An empty tree has height zero, a leaf has height one
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 *
+	 * @return the tree's height
+	 */
+	public int height() {
+		return root == NIL ? 0 : heights[root];
+	}
+
+	/**
+	 * The minimum key of the tree
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(1)
+	 *
+	 * @throws NoSuchElementException
+	 *             if the tree is empty
+	 */
+	protected long minKey() {
+		if (root == NIL)
+			throw new NoSuchElementException();
+
+		return key(ROOT_KEY);
+	}
+
+	/**
+	 * The maximum key of the tree, found by following the last child of each
+	 * node
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 *
+	 * @throws NoSuchElementException
+	 *             if the tree is empty
+	 */
+	protected long maxKey() {
+		if (root == NIL)
+			throw new NoSuchElementException();
+
+		return key(lastKeyPos(root, ROOT_KEY));
+	}
+
+	/**
+	 * The position of the key of the last node of a subtree in a prefix
+	 * traversal, given the node and the position of its key
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 */
+	private int lastKeyPos(int node, int pos) {
+		int block;
+		while ((block = inner[node]) != NIL) {
+			int i = numChildren[block] - 1;
+			pos = keyPos(block, i);
+			node = children[block * capacity + i];
+		}
+
+		return pos;
+	}
+
+	/**
+	 * Verifies if a key is in the tree
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 */
+	protected boolean containsKey(long elem) {
+		int node = root;
+		int pos = ROOT_KEY;
+
+		while (node != NIL) {
+			long key = key(pos);
+			if (elem == key)
+				return true;
+			if (elem < key)
+				return false;
+
+			int block = inner[node];
+			int i = block == NIL ? -1 : findChild(block, elem);
+			if (i < 0)
+				return false;
+			pos = keyPos(block, i);
+			node = children[block * capacity + i];
+		}
+
+		return false;
+	}
+
+	/**
+	 * Finds the last child in a block whose key is not greater than elem
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(capacity)
+	 *
+	 * @return the index of that child, or -1 if there is none
+	 */
+	private int findChild(int block, long elem) {
+		return lastNotGreater(keyPos(block, 0), numChildren[block], elem);
+	}
+
+	/**
+	 * Inserts a key, if it is not in the tree yet
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 */
+	protected void insertKey(long elem) {
+		if (!containsKey(elem)) {
+			if (root == NIL) {
+				root = allocateNode();
+				setKey(ROOT_KEY, elem);
+			} else {
+				add(root, ROOT_KEY, elem);
+			}
+			modCount++;
+		}
+	}
+
+	/**
+	 * Adds an element known not to be in the subtree, as in ArrayNTree: as a
+	 * new child if it fits after the previous child's subtree, otherwise into
+	 * that child. The key of the node is at the given position
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 */
+	private void add(int node, int pos, long elem) {
+		if (elem < key(pos)) {
+			insertSmallest(node, pos, elem);
+			return;
+		}
+
+		int block = inner[node];
+		int n = block == NIL ? 0 : numChildren[block];
+		int i = n == 0 ? -1 : findChild(block, elem);
+		if (n < capacity) {
+			if (i >= 0 && elem < key(lastKeyPos(
+					children[block * capacity + i], keyPos(block, i))))
+				add(children[block * capacity + i], keyPos(block, i), elem);
+			else
+				addLeaf(node, i + 1, elem);
+		} else if (i >= 0) {
+			add(children[block * capacity + i], keyPos(block, i), elem);
+		} else {
+			insertSmallest(children[block * capacity], keyPos(block, 0), elem);
+		}
+		updateCounters(node);
+		balance(node, pos);
+	}
+
+	/**
+	 * Inserts an element smaller than every element of the subtree, pushing
+	 * the node's key down as the smallest element among its children
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 */
+	private void insertSmallest(int node, int pos, long elem) {
+		long old = key(pos);
+		setKey(pos, elem);
+
+		int block = inner[node];
+		if (block == NIL || numChildren[block] < capacity)
+			addLeaf(node, 0, old);
+		else
+			insertSmallest(children[block * capacity], keyPos(block, 0), old);
+
+		updateCounters(node);
+		balance(node, pos);
+	}
+
+	/**
+	 * Adds a new leaf with the given key as the i-th child of a node, moving
+	 * the later children and their keys one place right. A leaf gets its
+	 * block here
+	 */
+	private void addLeaf(int node, int i, long elem) {
+		// allocating may grow the pools, so they are read afterwards
+		int child = allocateNode();
+		int block = inner[node];
+		if (block == NIL) {
+			block = allocateBlock();
+			inner[node] = block;
+		}
+
+		int base = block * capacity;
+		int moved = numChildren[block] - i;
+		System.arraycopy(children, base + i, children, base + i + 1, moved);
+		moveKeys(keyPos(block, i), keyPos(block, i + 1), moved);
+		children[base + i] = child;
+		setKey(keyPos(block, i), elem);
+		numChildren[block]++;
+	}
+
+	/**
+	 * Deletes a key, if it is in the tree
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 */
+	protected void deleteKey(long elem) {
+		if (containsKey(elem)) {
+			if (remove(root, ROOT_KEY, elem))
+				root = NIL;
+			modCount++;
+		}
+	}
+
+	/**
+	 * Removes an element known to be in the subtree. The key of a node is
+	 * replaced by the key of its first child, which is then removed from
+	 * that child
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(log n)
+	 *
+	 * @return true iff the node was left empty, and so was freed
+	 */
+	private boolean remove(int node, int pos, long elem) {
+		int block = inner[node];
+		int i;
+
+		if (elem == key(pos)) {
+			if (block == NIL) {
+				freeNode(node);
+				return true;
+			}
+			elem = key(keyPos(block, 0));
+			setKey(pos, elem);
+			i = 0;
+		} else {
+			i = findChild(block, elem);
+		}
+
+		if (remove(children[block * capacity + i], keyPos(block, i), elem))
+			removeChild(node, block, i);
+
+		updateCounters(node);
+		balance(node, pos);
+		return false;
+	}
+
+	/**
+	 * Removes the i-th child of a node, moving the later children and their
+	 * keys one place left. A node left without children frees its block
+	 */
+	private void removeChild(int node, int block, int i) {
+		int base = block * capacity;
+		int moved = numChildren[block] - i - 1;
+		System.arraycopy(children, base + i + 1, children, base + i, moved);
+		moveKeys(keyPos(block, i + 1), keyPos(block, i), moved);
+
+		if (--numChildren[block] == 0) {
+			freeBlock(block);
+			inner[node] = NIL;
+		}
+	}
+
+	/**
+	 * Rebuilds the subtree of a node as a balanced one if it became too tall
+	 * for its size, by the same rule as ArrayNTree. The node keeps its place,
+	 * and the nodes and blocks below it are reused for the new subtree
+	 *
+	 * @best-case O(log n)
+	 * @worst-case O(n)
+	 */
+	private void balance(int node, int pos) {
+		if (!ArrayNTree.isTooTall(sizes[node], heights[node], capacity))
+			return;
+
+		long[] array = new long[sizes[node]];
+		copyTo(node, pos, array, 0);
+		freeChildren(node);
+		fill(node, pos, i -> array[i], 0, array.length,
+				ArrayNTree.balancedFanOut(capacity));
+	}
+
+	private int copyTo(int node, int pos, long[] array, int from) {
+		array[from++] = key(pos);
+		int block = inner[node];
+		if (block != NIL)
+			for (int i = 0; i < numChildren[block]; i++)
+				from = copyTo(children[block * capacity + i], keyPos(block, i),
+						array, from);
+		return from;
+	}
+
+	/**
+	 * Recomputes the counters of a node from its children
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(capacity)
+	 */
+	private void updateCounters(int node) {
+		int block = inner[node];
+		int size = 1;
+		int height = 1;
+		int nLeaves = 1;
+
+		if (block != NIL) {
+			nLeaves = 0;
+			for (int i = 0; i < numChildren[block]; i++) {
+				int child = children[block * capacity + i];
+				size += sizes[child];
+				height = Math.max(height, 1 + heights[child]);
+				nLeaves += leaves[child];
+			}
+		}
+
+		sizes[node] = size;
+		heights[node] = height;
+		leaves[node] = nLeaves;
+	}
+
+	/**
+	 * The position of the key of the i-th child in a block
+	 */
+	private int keyPos(int block, int i) {
+		return 1 + block * capacity + i;
+	}
+
+	/**
+	 * Takes a node from the free list, or from the end of the pool, growing
+	 * it if needed
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(n), amortized O(1)
+	 *
+	 * @return the new leaf node, whose key is still to be set by its parent
+	 */
+	private int allocateNode() {
+		int node;
+		if (freeNodes != NIL) {
+			node = freeNodes;
+			freeNodes = sizes[node];
+		} else {
+			ensureNodeCapacity(allocatedNodes + 1);
+			node = allocatedNodes++;
+		}
+
+		inner[node] = NIL;
+		sizes[node] = 1;
+		heights[node] = 1;
+		leaves[node] = 1;
+		return node;
+	}
+
+	/**
+	 * Takes a block from the free list, or from the end of the pool, growing
+	 * it if needed
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(n), amortized O(1)
+	 *
+	 * @return the new block, without children
+	 */
+	private int allocateBlock() {
+		int block;
+		if (freeBlocks != NIL) {
+			block = freeBlocks;
+			freeBlocks = children[block * capacity];
+		} else {
+			ensureBlockCapacity(allocatedBlocks + 1);
+			block = allocatedBlocks++;
+		}
+
+		numChildren[block] = 0;
+		return block;
+	}
+
+	/**
+	 * Frees every node below the given one, which keeps its place but has
+	 * no children afterwards
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(n)
+	 */
+	private void freeChildren(int node) {
+		int block = inner[node];
+		if (block == NIL)
+			return;
+
+		for (int i = 0; i < numChildren[block]; i++) {
+			int child = children[block * capacity + i];
+			freeChildren(child);
+			freeNode(child);
+		}
+		freeBlock(block);
+		inner[node] = NIL;
+	}
+
+	private void freeNode(int node) {
+		sizes[node] = freeNodes;
+		freeNodes = node;
+	}
+
+	private void freeBlock(int block) {
+		children[block * capacity] = freeBlocks;
+		freeBlocks = block;
+	}
+
+	/**
+	 * Grows the node pool so it keeps at least the given number of nodes,
+	 * by half its size at least
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(n)
+	 */
+	private void ensureNodeCapacity(int nodes) {
+		if (sizes != null && nodes <= sizes.length)
+			return;
+
+		int length = sizes == null ? Math.max(nodes, INITIAL_NODES)
+				: Math.max(nodes, sizes.length + (sizes.length >> 1));
+		inner = resize(inner, length);
+		sizes = resize(sizes, length);
+		heights = resize(heights, length);
+		leaves = resize(leaves, length);
+	}
+
+	/**
+	 * Grows the block pool so it keeps at least the given number of blocks,
+	 * by half its size at least, together with the keys of their children
+	 *
+	 * @best-case O(1)
+	 * @worst-case O(n)
+	 */
+	private void ensureBlockCapacity(int blocks) {
+		if (numChildren != null && blocks <= numChildren.length)
+			return;
+
+		int length = numChildren == null ? blocks
+				: Math.max(blocks, numChildren.length
+						+ (numChildren.length >> 1));
+		numChildren = resize(numChildren, length);
+		children = resize(children, length * capacity);
+		resizeKeys(keyPos(length, 0));
+	}
+
+	private static int[] resize(int[] array, int length) {
+		return array == null ? new int[length] : Arrays.copyOf(array, length);
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		if (root == NIL)
+			sb.append("[]");
+		else
+			appendTo(root, ROOT_KEY, sb);
+		return sb.toString();
+	}
+
+	private void appendTo(int node, int pos, StringBuilder sb) {
+		sb.append('[').append(key(pos));
+		int block = inner[node];
+		if (block != NIL) {
+			sb.append(':');
+			for (int i = 0; i < numChildren[block]; i++)
+				appendTo(children[block * capacity + i], keyPos(block, i), sb);
+		}
+		sb.append(']');
+	}
+
+	/**
+	 * Lazy prefix traversal of the nodes, keeping the path from the root to
+	 * the next node together with the position of their keys and the next
+	 * child to visit on each of those nodes. Subclasses turn the positions of
+	 * the keys into keys
+	 */
+	protected abstract class NodeIterator {
+
+		private int[] nodes;
+		private int[] positions;
+		private int[] nextChild;
+		private int depth;
+		private int expectedModCount = modCount;
+
+		protected NodeIterator() {
+			int maxDepth = Math.max(1, height());
+			nodes = new int[maxDepth];
+			positions = new int[maxDepth];
+			nextChild = new int[maxDepth];
+
+			if (root != NIL)
+				push(root, ROOT_KEY);
+		}
+
+		public boolean hasNext() {
+			return depth > 0;
+		}
+
+		/**
+		 * @return the position of the key of the next node in a prefix
+		 *         traversal
+		 */
+		protected int nextKeyPos() {
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+
+			if (!this.hasNext())
+				throw new NoSuchElementException();
+
+			int next = positions[depth - 1];
+
+			while (depth > 0) {
+				int block = inner[nodes[depth - 1]];
+				int i = nextChild[depth - 1];
+				if (block != NIL && i < numChildren[block]) {
+					nextChild[depth - 1]++;
+					push(children[block * capacity + i], keyPos(block, i));
+					break;
+				}
+				depth--;
+			}
+
+			return next;
+		}
+
+		private void push(int node, int pos) {
+			if (depth == nodes.length) {
+				nodes = Arrays.copyOf(nodes, 2 * depth);
+				positions = Arrays.copyOf(positions, 2 * depth);
+				nextChild = Arrays.copyOf(nextChild, 2 * depth);
+			}
+			nodes[depth] = node;
+			positions[depth] = pos;
+			nextChild[depth] = 0;
+			depth++;
+		}
+	}
+
+}
@@ -0,0 +1,50 @@
+package main.java.datatype;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A spliterator reporting the comparator that sorts its elements, wrapping
+ * one that does not, as those built by Spliterators. Its prefixes are
+ * wrapped too, so every part of a split reports the same ordering.
+ *
+ * @param <T> The type of elements traversed
+ */
+class SortedSpliterator<T> implements Spliterator<T> {
+
+	private final Spliterator<T> elems;
+	private final Comparator<? super T> comparator;
+
+	SortedSpliterator(Spliterator<T> elems, Comparator<? super T> comparator) {
+		this.elems = elems;
+		this.comparator = comparator;
+	}
+
+	public boolean tryAdvance(Consumer<? super T> action) {
+		return elems.tryAdvance(action);
+	}
+
+	public void forEachRemaining(Consumer<? super T> action) {
+		elems.forEachRemaining(action);
+	}
+
+	public Spliterator<T> trySplit() {
+		Spliterator<T> prefix = elems.trySplit();
+		return prefix == null ? null
+				: new SortedSpliterator<>(prefix, comparator);
+	}
+
+	public long estimateSize() {
+		return elems.estimateSize();
+	}
+
+	public int characteristics() {
+		return elems.characteristics() | Spliterator.SORTED;
+	}
+
+	public Comparator<? super T> getComparator() {
+		return comparator;
+	}
+
+}
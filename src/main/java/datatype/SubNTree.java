@@ -0,0 +1,257 @@
+package main.java.datatype;
+
+import java.util.*;
+
+/**
+ * A view of the elements of a n-tree between two bounds, as returned by
+ * NTree.subTree. Every operation is done by the backing tree, restricted to
+ * the range; a null bound means there is no bound on that side.
+ *
+ * @param <T> The type of elements kept in the n-tree
+ */
+class SubNTree<T> implements NTree<T> {
+
+	private final NTree<T> tree;
+	private final Comparator<? super T> comparator;
+	private final T from;
+	private final boolean fromInclusive;
+	private final T to;
+	private final boolean toInclusive;
+
+	SubNTree(NTree<T> tree, T from, boolean fromInclusive, T to,
+			boolean toInclusive) {
+		this.tree = tree;
+		this.comparator = tree.comparator() == null ? naturalOrder()
+				: tree.comparator();
+		this.from = from;
+		this.fromInclusive = fromInclusive;
+		this.to = to;
+		this.toInclusive = toInclusive;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Comparator<T> naturalOrder() {
+		return (a, b) -> ((Comparable<T>) a).compareTo(b);
+	}
+
+	public Comparator<? super T> comparator() {
+		return tree.comparator();
+	}
+
+	private boolean tooLow(T elem) {
+		if (from == null)
+			return false;
+		int cmp = comparator.compare(elem, from);
+		return cmp < 0 || (cmp == 0 && !fromInclusive);
+	}
+
+	private boolean tooHigh(T elem) {
+		if (to == null)
+			return false;
+		int cmp = comparator.compare(elem, to);
+		return cmp > 0 || (cmp == 0 && !toInclusive);
+	}
+
+	private boolean inRange(T elem) {
+		return !tooLow(elem) && !tooHigh(elem);
+	}
+
+	// the result if it is in range, null otherwise
+	private T inRangeOrNull(T elem) {
+		return elem == null || !inRange(elem) ? null : elem;
+	}
+
+	/**
+	 * The view of the elements both in this view and between the given
+	 * bounds
+	 */
+	private SubNTree<T> restrict(T from, boolean fromInclusive, T to,
+			boolean toInclusive) {
+		T lo = this.from;
+		boolean loInclusive = this.fromInclusive;
+		if (from != null && (lo == null || tighter(from, fromInclusive, lo, 1))) {
+			lo = from;
+			loInclusive = fromInclusive;
+		}
+
+		T hi = this.to;
+		boolean hiInclusive = this.toInclusive;
+		if (to != null && (hi == null || tighter(to, toInclusive, hi, -1))) {
+			hi = to;
+			hiInclusive = toInclusive;
+		}
+
+		return new SubNTree<>(tree, lo, loInclusive, hi, hiInclusive);
+	}
+
+	/**
+	 * Verifies if a bound lets less elements in than another bound
+	 * 
+	 * @param side
+	 *            1 for lower bounds, -1 for upper bounds
+	 */
+	private boolean tighter(T bound, boolean inclusive, T other, int side) {
+		int cmp = Integer.signum(comparator.compare(bound, other)) * side;
+		return cmp > 0 || (cmp == 0 && !inclusive);
+	}
+
+	// the greatest element in range, if there is one
+	private T last() {
+		T elem = to == null ? tree.max() : toInclusive ? tree.floor(to)
+				: tree.lower(to);
+		return inRangeOrNull(elem);
+	}
+
+	// the smallest element in range, if there is one
+	private T first() {
+		T elem = from == null ? tree.min() : fromInclusive ? tree.ceiling(from)
+				: tree.higher(from);
+		return inRangeOrNull(elem);
+	}
+
+	public boolean isEmpty() {
+		return !iterator().hasNext();
+	}
+
+	public boolean isLeaf() {
+		return size() == 1;
+	}
+
+	public int size() {
+		return tree.countInRange(from, fromInclusive, to, toInclusive);
+	}
+
+	public int countLeaves() {
+		throw new UnsupportedOperationException("views have no leaves");
+	}
+
+	public int height() {
+		throw new UnsupportedOperationException("views have no height");
+	}
+
+	public T min() {
+		return tree.isEmpty() ? null : first();
+	}
+
+	public T max() {
+		return tree.isEmpty() ? null : last();
+	}
+
+	public T floor(T elem) {
+		return tooHigh(elem) ? last() : inRangeOrNull(tree.floor(elem));
+	}
+
+	public T lower(T elem) {
+		return tooHigh(elem) ? last() : inRangeOrNull(tree.lower(elem));
+	}
+
+	public T ceiling(T elem) {
+		return tooLow(elem) ? first() : inRangeOrNull(tree.ceiling(elem));
+	}
+
+	public T higher(T elem) {
+		return tooLow(elem) ? first() : inRangeOrNull(tree.higher(elem));
+	}
+
+	public int rank(T elem) {
+		return restrict(null, true, elem, false).size();
+	}
+
+	public T select(int k) {
+		if (k < 0 || k >= size())
+			throw new IndexOutOfBoundsException("rank: " + k);
+
+		// the rank, in the backing tree, of the first element in range
+		int first = from == null ? 0 : tree.countInRange(null, true, from,
+				!fromInclusive);
+		return tree.select(first + k);
+	}
+
+	public boolean contains(T elem) {
+		return inRange(elem) && tree.contains(elem);
+	}
+
+	/**
+	 * Insert element into the backing tree
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if elem is out of range
+	 */
+	public void insert(T elem) {
+		if (!inRange(elem))
+			throw new IllegalArgumentException("element out of range: "
+					+ elem);
+		tree.insert(elem);
+	}
+
+	public void delete(T elem) {
+		if (inRange(elem))
+			tree.delete(elem);
+	}
+
+	/**
+	 * Insert all the given elements into the backing tree
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if any element is out of range; the tree does not change
+	 */
+	public boolean insertAll(Collection<? extends T> elems) {
+		for (T elem : elems)
+			if (!inRange(elem))
+				throw new IllegalArgumentException("element out of range: "
+						+ elem);
+		return tree.insertAll(elems);
+	}
+
+	public boolean deleteAll(Collection<? extends T> elems) {
+		List<T> inRange = new ArrayList<>();
+		for (T elem : elems)
+			if (inRange(elem))
+				inRange.add(elem);
+		return tree.deleteAll(inRange);
+	}
+
+	public boolean retainAll(Collection<? extends T> elems) {
+		Set<T> keep = new TreeSet<>(comparator);
+		keep.addAll(elems);
+		List<T> gone = new ArrayList<>();
+		for (T elem : this)
+			if (!keep.contains(elem))
+				gone.add(elem);
+		return tree.deleteAll(gone);
+	}
+
+	public List<T> toList() {
+		List<T> list = new ArrayList<>();
+		for (T elem : this)
+			list.add(elem);
+		return list;
+	}
+
+	public T[] toArray(T[] array) {
+		return toList().toArray(array);
+	}
+
+	public Iterator<T> iterator() {
+		return tree.rangeIterator(from, fromInclusive, to, toInclusive);
+	}
+
+	public Iterator<T> rangeIterator(T from, boolean fromInclusive, T to,
+			boolean toInclusive) {
+		return restrict(from, fromInclusive, to, toInclusive).iterator();
+	}
+
+	public int countInRange(T from, boolean fromInclusive, T to,
+			boolean toInclusive) {
+		return restrict(from, fromInclusive, to, toInclusive).size();
+	}
+
+	public NTree<T> subTree(T from, boolean fromInclusive, T to,
+			boolean toInclusive) {
+		return restrict(from, fromInclusive, to, toInclusive);
+	}
+
+	public String toString() {
+		return toList().toString();
+	}
+}
@@ -0,0 +1,331 @@
+package main.java.datatype;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.util.*;
+import java.util.stream.Collectors;
+
+public class ArrayNTreeTest {
+	List<Integer> list1, list2;
+	ArrayNTree<Integer> tree1, tree2;
+	
+	private int defaultCapacity = 5;
+	
+	@Before
+	public void setup() {
+		list1 = new ArrayList<>();
+		for (int i = 1; i < 100; i++)
+			list1.add(i*10);
+		
+		// list2 has the same elements of list1, but shuffled
+		list2 = new ArrayList<>(list1);
+		Collections.shuffle(list2, new Random(1));
+		
+		tree1 = new ArrayNTree<>(list1, defaultCapacity);
+		tree2 = new ArrayNTree<>(list2, defaultCapacity);
+	}
+	
+	// if the tree is well built, the iterator should return
+	// an increasing sequence of elements
+	private boolean assertInvariant(ArrayNTree<Integer> tree) {
+		Integer prev = null;
+		for (int elem : tree) {
+			if (prev != null && prev >= elem)
+				return false;
+			prev = elem;
+		}
+		return true;
+	}
+	
+	@Test
+	public void testParallelBulkLoad() {
+		// small thresholds, so that the elements are split among many tasks
+		for (int threshold : new int[] { 1, 7, 1000 }) {
+			ArrayNTree<Integer> loaded = ArrayNTree.parallelBulkLoad(list2, defaultCapacity, 0.6, false, threshold);
+			assertEquals(ArrayNTree.bulkLoad(list2, defaultCapacity, 0.6, false).info(), loaded.info());
+			
+			assertEquals(list1, loaded.parallelToList(threshold));
+			assertEquals(list1.stream().mapToInt(Integer::intValue).sum(),
+					(int) loaded.parallelReduce(0, (sum, elem) -> sum + elem, Integer::sum, threshold));
+			// the parts are combined in order
+			assertEquals(list1.toString(), "[" + loaded.parallelReduce("",
+					(str, elem) -> str.isEmpty() ? elem.toString() : str + ", " + elem,
+					(a, b) -> a.isEmpty() || b.isEmpty() ? a + b : a + ", " + b, threshold) + "]");
+		}
+		
+		assertTrue(ArrayNTree.parallelBulkLoad(Collections.<Integer>emptyList(), defaultCapacity, 1, false, 1).isEmpty());
+		assertEquals(Collections.emptyList(), new ArrayNTree<Integer>(defaultCapacity).parallelToList(1));
+	}
+	
+	@Test
+	public void testBulkLoadDuplicates() {
+		List<Integer> repeated = new ArrayList<>(list2);
+		repeated.addAll(list1);
+		
+		ArrayNTree<Integer> loaded = ArrayNTree.bulkLoad(repeated, defaultCapacity, 0.5, true);
+		assertEquals(tree1, loaded);
+		
+		try {
+			ArrayNTree.bulkLoad(repeated, defaultCapacity, 1, false);
+			fail("repeated elements must be rejected");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+	
+	@Test
+	public void testWriteRead() throws IOException {
+		for (ArrayNTree<Integer> tree : Arrays.asList(tree2, new ArrayNTree<Integer>(defaultCapacity))) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			tree.writeTo(out, KeyCodec.INTEGER);
+			
+			ArrayNTree<Integer> read = ArrayNTree.readFrom(new ByteArrayInputStream(out.toByteArray()), KeyCodec.INTEGER);
+			assertEquals(tree.toString(), read.toString());
+			assertEquals(tree.info(), read.info());
+			assertTrue(assertInvariant(read));
+		}
+		
+		// through channels, in the order of the tree written
+		ArrayNTree<Integer> reversed = new ArrayNTree<>(list2, defaultCapacity, Comparator.reverseOrder());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		reversed.writeTo(Channels.newChannel(bytes), KeyCodec.INTEGER);
+		ArrayNTree<Integer> read = ArrayNTree.readFrom(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())),
+				KeyCodec.INTEGER, Comparator.reverseOrder());
+		assertEquals(reversed.info(), read.info());
+		assertTrue(read.contains(list1.get(7)));
+		
+		// one byte per node and per difference, after the 7 byte header
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		tree1.writeTo(out, KeyCodec.INTEGER);
+		assertEquals(7 + 2 * list1.size(), out.size());
+		
+		byte[] corrupted = out.toByteArray();
+		corrupted[corrupted.length - 1] = 0; // a repeated element
+		try {
+			ArrayNTree.readFrom(new ByteArrayInputStream(corrupted), KeyCodec.INTEGER);
+			fail("corrupted trees must be rejected");
+		} catch (IOException e) {
+		}
+	}
+	
+	@Test
+	public void testComparator() {
+		ArrayNTree<Integer> reversed = new ArrayNTree<>(list1, defaultCapacity,
+				Comparator.reverseOrder());
+		List<Integer> expected = new ArrayList<>(list1);
+		Collections.reverse(expected);
+		assertEquals(expected, reversed.toList());
+		assertEquals(expected.get(0), reversed.min());
+		assertEquals(Comparator.reverseOrder(), reversed.comparator());
+		assertNull(tree2.comparator());
+		
+		// streams report the tree's order, so sorting them naturally is not skipped
+		assertEquals(list1, reversed.stream().sorted().collect(Collectors.toList()));
+		NTree<Integer> range = reversed.subTree(150, true, 50, true);
+		assertEquals(Comparator.reverseOrder(), range.spliterator().getComparator());
+		assertEquals(list1.subList(4, 15), range.stream().sorted().collect(Collectors.toList()));
+		assertEquals(expected.subList(84, 95), range.toList());
+		
+		reversed.delete(list1.get(3));
+		reversed.insert(-1);
+		assertFalse(reversed.contains(list1.get(3)));
+		assertEquals(-1, (int) reversed.max());
+		assertEquals(0, reversed.rank(expected.get(0)));
+		
+		// byte arrays are found by their contents
+		ArrayNTree<byte[]> bytes = new ArrayNTree<>(defaultCapacity,
+				ByteArrayComparator.UNSIGNED);
+		for (int elem : list1)
+			bytes.insert(new byte[] { (byte) (elem >> 8), (byte) elem });
+		assertEquals(list1.size(), bytes.size());
+		assertTrue(bytes.contains(new byte[] { 0, 10 }));
+		assertFalse(bytes.contains(new byte[] { 0, 11 }));
+		assertEquals(list1.get(list1.size() - 1) & 0xFF, bytes.max()[1] & 0xFF);
+		bytes.insert(new byte[] { 0, 10 });
+		assertEquals(list1.size(), bytes.size());
+		assertEquals(1, bytes.subTree(new byte[] { 0, 10 }, new byte[] { 0, 20 }).size());
+		
+		ArrayNTree<byte[]> copy = new ArrayNTree<>(defaultCapacity,
+				ByteArrayComparator.UNSIGNED);
+		for (byte[] elem : bytes)
+			copy.insert(elem.clone());
+		for (byte[] elem : copy)
+			assertTrue(bytes.contains(elem));
+		// equal trees have equal elements, and arrays are only equal to themselves
+		assertNotEquals(bytes, copy);
+		ArrayNTree<byte[]> same = new ArrayNTree<>(defaultCapacity,
+				ByteArrayComparator.UNSIGNED);
+		same.insertAll(bytes.toList());
+		assertEquals(bytes, same);
+		
+		// trees of unrelated types differ, both ways
+		ArrayNTree<String> strings = new ArrayNTree<>(defaultCapacity);
+		for (int elem : list1)
+			strings.insert(Integer.toString(elem));
+		assertNotEquals(tree1, strings);
+		assertNotEquals(strings, tree1);
+		assertEquals(tree1.hashCode(), list1.hashCode());
+		assertEquals(tree1.hashCode(), tree2.hashCode());
+	}
+	
+	@Test
+	public void testSpliterator() {
+		assertEquals(list1, tree2.stream().collect(Collectors.toList()));
+		assertEquals(list1, tree2.parallelStream().collect(Collectors.toList()));
+		assertEquals(list1.stream().mapToInt(Integer::intValue).sum(),
+				tree2.parallelStream().mapToInt(Integer::intValue).sum());
+		
+		Spliterator<Integer> spliterator = tree2.spliterator();
+		assertTrue(spliterator.hasCharacteristics(Spliterator.SORTED | Spliterator.DISTINCT
+				| Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED));
+		
+		List<Integer> elems = new ArrayList<>();
+		split(spliterator, elems);
+		assertEquals(list1, elems);
+		
+		assertEquals(0, new ArrayNTree<Integer>(defaultCapacity).spliterator().estimateSize());
+	}
+	
+	// splits down to single elements, checking the exact sizes of the parts
+	private void split(Spliterator<Integer> spliterator, List<Integer> elems) {
+		long size = spliterator.getExactSizeIfKnown();
+		Spliterator<Integer> prefix = spliterator.trySplit();
+		
+		if (prefix == null) {
+			int before = elems.size();
+			if (spliterator.tryAdvance(elems::add))
+				spliterator.forEachRemaining(elems::add);
+			assertEquals(size, elems.size() - before);
+		} else {
+			assertEquals(size, prefix.estimateSize() + spliterator.estimateSize());
+			split(prefix, elems);
+			split(spliterator, elems);
+		}
+	}
+	
+	@Test
+	public void testSubTree() {
+		NTree<Integer> view = tree1.subTree(200, 400);
+		assertEquals(20, view.size());
+		assertEquals(200, (int) view.min());
+		assertEquals(390, (int) view.max());
+		assertEquals(390, (int) view.floor(1000));
+		assertNull(view.lower(200));
+		assertEquals(200, (int) view.ceiling(5));
+		assertFalse(view.contains(400));
+		
+		// changes are seen both ways
+		view.insert(205);
+		assertTrue(tree1.contains(205));
+		tree1.delete(300);
+		assertFalse(view.contains(300));
+		assertEquals(20, view.size());
+		try {
+			view.insert(400);
+			fail("elements out of range must be rejected");
+		} catch (IllegalArgumentException e) {
+		}
+		
+		NTree<Integer> nested = view.tailTree(350, false);
+		assertEquals(Arrays.asList(360, 370, 380, 390), nested.toList());
+		assertEquals(Arrays.asList(360, 370), nested.headTree(370, true).toList());
+		assertTrue(nested.subTree(500, 600).isEmpty());
+		
+		nested.retainAll(Arrays.asList(370));
+		assertEquals(Arrays.asList(370), nested.toList());
+		assertTrue(tree1.contains(350));
+		assertTrue(assertInvariant(tree1));
+	}
+	
+	@Test
+	public void testRangeIterator() {
+		TreeSet<Integer> set = new TreeSet<>(list1);
+		Random r = new Random(4);
+		
+		for (int i = 0; i < 20; i++) {
+			int from = r.nextInt(1100) - 50, to = from + r.nextInt(300);
+			boolean fromInclusive = r.nextBoolean(), toInclusive = r.nextBoolean();
+			
+			List<Integer> expected = new ArrayList<>(set.subSet(from, fromInclusive, to, toInclusive));
+			List<Integer> actual = new ArrayList<>();
+			tree2.rangeIterator(from, fromInclusive, to, toInclusive).forEachRemaining(actual::add);
+			assertEquals(expected, actual);
+			assertEquals(expected.size(), tree2.countInRange(from, fromInclusive, to, toInclusive));
+		}
+		
+		assertEquals(list1.size(), tree2.countInRange(null, true, null, true));
+		assertEquals(0, tree2.countInRange(500, true, 100, true));
+		assertFalse(tree2.rangeIterator(995, true, null, true).hasNext());
+		assertEquals(0, new ArrayNTree<Integer>(defaultCapacity).countInRange(1, true, 2, true));
+	}
+	
+	@Test
+	public void testHeightLogarithmic() {
+		List<Integer> sorted = new ArrayList<>();
+		for (int i = 0; i < 1000; i++)
+			sorted.add(i);
+		List<Integer> reversed = new ArrayList<>(sorted);
+		Collections.reverse(reversed);
+		List<Integer> shuffled = new ArrayList<>(sorted);
+		Collections.shuffle(shuffled, new Random(2));
+		
+		for (int capacity : new int[] { 2, 5 })
+			for (List<Integer> order : Arrays.asList(sorted, reversed, shuffled)) {
+				ArrayNTree<Integer> tree = new ArrayNTree<>(capacity);
+				for (int elem : order)
+					tree.insert(elem);
+				assertHeightLogarithmic(tree, capacity);
+				
+				for (int elem : shuffled.subList(0, 900))
+					tree.delete(elem);
+				assertHeightLogarithmic(tree, capacity);
+				assertEquals(new TreeSet<>(shuffled.subList(900, 1000)),
+						new TreeSet<>(tree.toList()));
+			}
+	}
+	
+	// a tree of height h keeps at least capacity^((h - 1) / 2) elements
+	private void assertHeightLogarithmic(ArrayNTree<Integer> tree, int capacity) {
+		double log = Math.log(tree.size()) / Math.log(capacity);
+		assertTrue("height " + tree.height() + " with " + tree.size()
+				+ " elements", tree.height() <= 2 * log + 2);
+	}
+
+	@Test
+	public void testInsertDecreasing() {
+		ArrayNTree<Integer> tree = new ArrayNTree<>(defaultCapacity);
+		for(int i = 1000; i > 0; i--)
+			tree.insert(i);
+		
+		assertTrue("size is 1000", tree.size() == 1000);
+		assertTrue("min is 1", tree.min() == 1);
+		assertTrue(assertInvariant(tree));
+	}
+
+	@Test
+	public void testDeleteInsertChurn() {
+		// the deleted nodes are reused by the following insertions
+		Random r = new Random(3);
+		for (int rep = 0; rep < 3; rep++) {
+			Collections.shuffle(list2, r);
+			for (int elem : list2) {
+				tree2.delete(elem);
+				assertFalse(tree2.contains(elem));
+				tree2.insert(elem);
+			}
+			for (int elem : list2.subList(0, 50))
+				tree2.delete(elem);
+			for (int elem : list2.subList(0, 50))
+				tree2.insert(elem);
+		}
+		
+		assertEquals(list1, tree2.toList());
+		assertEquals(list1.size(), tree2.size());
+		for (int k = 0; k < list1.size(); k++)
+			assertEquals(list1.get(k), tree2.select(k));
+		assertEquals(tree1, tree2);
+	}
+}
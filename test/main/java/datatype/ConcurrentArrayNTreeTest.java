@@ -0,0 +1,123 @@
+package main.java.datatype;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ConcurrentArrayNTreeTest {
+
+	private static final int WRITERS = 4;
+	private static final int READERS = 4;
+	private static final int OPERATIONS = 20000;
+	private static final int KEYS_PER_WRITER = 500;
+
+	// if the tree is well built, the iterator should return
+	// an increasing sequence of elements
+	private boolean assertInvariant(NTree<Integer> tree) {
+		Integer prev = null;
+
+		for (int elem : tree) {
+			if (prev != null && prev >= elem)
+				return false;
+			prev = elem;
+		}
+		return true;
+	}
+
+	@Test
+	public void testConcurrentInsertDelete() throws Exception {
+		ConcurrentArrayNTree<Integer> tree = new ConcurrentArrayNTree<>(5);
+		List<Set<Integer>> expected = new ArrayList<>();
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicBoolean broken = new AtomicBoolean();
+
+		ExecutorService pool = Executors.newFixedThreadPool(WRITERS + READERS);
+		List<Future<?>> writers = new ArrayList<>();
+		List<Future<?>> readers = new ArrayList<>();
+
+		// each writer owns the keys congruent to its id, so the final
+		// contents of the tree are known
+		for (int w = 0; w < WRITERS; w++) {
+			Set<Integer> own = new HashSet<>();
+			expected.add(own);
+			int id = w;
+			writers.add(pool.submit(() -> {
+				Random r = new Random(id);
+				for (int i = 0; i < OPERATIONS; i++) {
+					int key = id + WRITERS * r.nextInt(KEYS_PER_WRITER);
+					if (r.nextBoolean()) {
+						tree.insert(key);
+						own.add(key);
+					} else {
+						tree.delete(key);
+						own.remove(key);
+					}
+				}
+			}));
+		}
+
+		for (int rd = 0; rd < READERS; rd++) {
+			int id = rd;
+			readers.add(pool.submit(() -> {
+				Random r = new Random(-id);
+				while (!done.get()) {
+					int key = r.nextInt(WRITERS * KEYS_PER_WRITER);
+					Integer floor = tree.floor(key);
+					Integer ceiling = tree.ceiling(key);
+					if ((floor != null && floor > key)
+							|| (ceiling != null && ceiling < key)
+							|| !assertInvariant(tree))
+						broken.set(true);
+					tree.contains(key);
+				}
+			}));
+		}
+
+		for (Future<?> f : writers)
+			f.get();
+		done.set(true);
+		for (Future<?> f : readers)
+			f.get();
+		pool.shutdown();
+
+		assertFalse("readers saw a broken tree", broken.get());
+		assertTrue(assertInvariant(tree));
+
+		Set<Integer> all = new TreeSet<>();
+		for (Set<Integer> own : expected)
+			all.addAll(own);
+		assertEquals(new ArrayList<>(all), tree.toList());
+		assertTrue(tree.size() == all.size());
+	}
+
+	@Test
+	public void testBatchOperations() {
+		ConcurrentArrayNTree<Integer> tree = new ConcurrentArrayNTree<>(
+				Arrays.asList(5, 1, 3), 3);
+
+		assertTrue(tree.insertAll(Arrays.asList(2, 4)));
+		assertTrue(tree.deleteAll(Arrays.asList(1)));
+		assertEquals(Arrays.asList(2, 3, 4, 5), tree.toList());
+		assertTrue(tree.retainAll(Arrays.asList(3, 4)));
+		assertArrayEquals(new Integer[] { 3, 4 }, tree.toArray(new Integer[0]));
+	}
+
+	@Test
+	public void testComparator() {
+		ConcurrentArrayNTree<String> tree = new ConcurrentArrayNTree<>(
+				Arrays.asList("b", "C", "a"), 3, String.CASE_INSENSITIVE_ORDER);
+
+		assertSame(String.CASE_INSENSITIVE_ORDER, tree.comparator());
+		assertTrue(tree.contains("B"));
+		tree.insert("A");
+		assertEquals(Arrays.asList("a", "b", "C"), tree.toList());
+		assertEquals("C", tree.max());
+		assertEquals("b", tree.ceiling("B"));
+		assertSame(String.CASE_INSENSITIVE_ORDER,
+				tree.spliterator().getComparator());
+	}
+}
@@ -0,0 +1,221 @@
+package main.java.datatype;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+import main.java.datatype.DurableNTree.SyncPolicy;
+
+public class DurableNTreeTest {
+
+	private static final int OPERATIONS = 2000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static void randomChanges(NTree<Integer> tree, Set<Integer> set,
+			Random r) {
+		for (int op = 0; op < OPERATIONS; op++) {
+			int elem = r.nextInt(500);
+			if (r.nextInt(3) > 0) {
+				tree.insert(elem);
+				set.add(elem);
+			} else {
+				tree.delete(elem);
+				set.remove(elem);
+			}
+		}
+	}
+
+	@Test
+	public void testReopen() throws IOException {
+		for (SyncPolicy policy : SyncPolicy.values()) {
+			Path dir = folder.newFolder().toPath();
+			TreeSet<Integer> set = new TreeSet<>();
+
+			try (DurableNTree<Integer> tree = new DurableNTree<>(dir, 4,
+					KeyCodec.INTEGER, policy)) {
+				randomChanges(tree, set, new Random(1));
+				tree.insertAll(Arrays.asList(1000, 1001, 1002));
+				tree.deleteAll(Arrays.asList(1001, 7));
+				set.addAll(Arrays.asList(1000, 1001, 1002));
+				set.removeAll(Arrays.asList(1001, 7));
+			}
+
+			try (DurableNTree<Integer> tree = new DurableNTree<>(dir, 4,
+					KeyCodec.INTEGER, policy)) {
+				assertEquals(new ArrayList<>(set), tree.toList());
+				tree.retainAll(set.headSet(250));
+			}
+
+			try (DurableNTree<Integer> tree = new DurableNTree<>(dir, 4,
+					KeyCodec.INTEGER, policy)) {
+				assertEquals(new ArrayList<>(set.headSet(250)), tree.toList());
+			}
+		}
+	}
+
+	@Test
+	public void testClosed() throws IOException {
+		Path dir = folder.newFolder().toPath();
+		DurableNTree<Integer> tree = new DurableNTree<>(dir, 3,
+				KeyCodec.INTEGER, SyncPolicy.GROUP);
+		tree.insert(1);
+		tree.close();
+		tree.close();
+
+		try {
+			tree.insert(2);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		try {
+			tree.delete(1);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(Arrays.asList(1), tree.toList());
+	}
+
+	@Test
+	public void testOsWritesEveryChange() throws IOException {
+		Path dir = folder.newFolder().toPath();
+
+		try (DurableNTree<Integer> tree = new DurableNTree<>(dir, 3,
+				KeyCodec.INTEGER, SyncPolicy.OS)) {
+			tree.insert(10);
+			tree.insert(20);
+			tree.delete(10);
+			// in the log, though not forced to disk
+			assertEquals(3 * 9, Files.size(dir.resolve("ntree.log")));
+		}
+	}
+
+	@Test
+	public void testBatchLargerThanGroup() throws IOException {
+		Path dir = folder.newFolder().toPath();
+		List<Integer> elems = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+			elems.add(i);
+
+		// never closed, and never flushed by the delay
+		DurableNTree<Integer> crashed = new DurableNTree<>(dir, 3,
+				KeyCodec.INTEGER, SyncPolicy.GROUP, 4, 60_000, 1 << 20);
+		crashed.insert(-1);
+		crashed.insertAll(elems);
+		// in the log as one write, after the change kept before it
+		assertEquals(101 * 9, Files.size(dir.resolve("ntree.log")));
+		crashed.insert(100);
+		assertEquals(101 * 9, Files.size(dir.resolve("ntree.log")));
+
+		try (DurableNTree<Integer> tree = new DurableNTree<>(dir, 3,
+				KeyCodec.INTEGER, SyncPolicy.GROUP)) {
+			assertEquals(101, tree.size());
+			assertEquals(-1, tree.min().intValue());
+			assertEquals(99, tree.max().intValue());
+		}
+	}
+
+	@Test
+	public void testRecoverWithoutClose() throws IOException {
+		Path dir = folder.newFolder().toPath();
+		TreeSet<Integer> set = new TreeSet<>();
+
+		// never closed, as if the process had crashed
+		DurableNTree<Integer> crashed = new DurableNTree<>(dir, 3,
+				KeyCodec.INTEGER, SyncPolicy.EVERY_CHANGE);
+		randomChanges(crashed, set, new Random(2));
+
+		try (DurableNTree<Integer> tree = new DurableNTree<>(dir, 3,
+				KeyCodec.INTEGER, SyncPolicy.EVERY_CHANGE)) {
+			assertEquals(new ArrayList<>(set), tree.toList());
+		}
+	}
+
+	@Test
+	public void testTornRecord() throws IOException {
+		Path dir = folder.newFolder().toPath();
+
+		try (DurableNTree<Integer> tree = new DurableNTree<>(dir, 3,
+				KeyCodec.INTEGER, SyncPolicy.EVERY_CHANGE)) {
+			tree.insert(10);
+			tree.insert(20);
+		}
+
+		// half a record, then a full record with a wrong checksum
+		try (FileChannel log = FileChannel.open(dir.resolve("ntree.log"),
+				StandardOpenOption.APPEND)) {
+			log.write(ByteBuffer.wrap(new byte[] { 1, 0, 0 }));
+			log.write(ByteBuffer.wrap(new byte[] { 1, 0, 0, 0, 30, 0, 0, 0, 0 }));
+		}
+
+		try (DurableNTree<Integer> tree = new DurableNTree<>(dir, 3,
+				KeyCodec.INTEGER, SyncPolicy.EVERY_CHANGE)) {
+			assertEquals(Arrays.asList(10, 20), tree.toList());
+			tree.insert(30);
+		}
+
+		// the torn tail was dropped, so the new record follows the valid ones
+		try (DurableNTree<Integer> tree = new DurableNTree<>(dir, 3,
+				KeyCodec.INTEGER, SyncPolicy.EVERY_CHANGE)) {
+			assertEquals(Arrays.asList(10, 20, 30), tree.toList());
+		}
+	}
+
+	@Test
+	public void testCheckpoint() throws IOException {
+		Path dir = folder.newFolder().toPath();
+		TreeSet<Integer> set = new TreeSet<>();
+
+		// a checkpoint every 100 records or so
+		try (DurableNTree<Integer> tree = new DurableNTree<>(dir, 5,
+				KeyCodec.INTEGER, SyncPolicy.GROUP, 16, 5, 100 * 9)) {
+			randomChanges(tree, set, new Random(3));
+			assertTrue(Files.size(dir.resolve("ntree.log")) < 100 * 9);
+			assertTrue(Files.exists(dir.resolve("ntree.snapshot")));
+
+			tree.checkpoint();
+			assertEquals(0, Files.size(dir.resolve("ntree.log")));
+		}
+
+		try (DurableNTree<Integer> tree = new DurableNTree<>(dir, 5,
+				KeyCodec.INTEGER, SyncPolicy.GROUP)) {
+			assertEquals(new ArrayList<>(set), tree.toList());
+			assertEquals(set.size(), tree.size());
+		}
+	}
+
+	@Test
+	public void testReplayOverNewerSnapshot() throws IOException {
+		Path dir = folder.newFolder().toPath();
+		TreeSet<Integer> set = new TreeSet<>();
+
+		try (DurableNTree<Integer> tree = new DurableNTree<>(dir, 4,
+				KeyCodec.INTEGER, SyncPolicy.OS)) {
+			randomChanges(tree, set, new Random(4));
+		}
+		byte[] log = Files.readAllBytes(dir.resolve("ntree.log"));
+
+		try (DurableNTree<Integer> tree = new DurableNTree<>(dir, 4,
+				KeyCodec.INTEGER, SyncPolicy.OS)) {
+			tree.checkpoint();
+		}
+
+		// a crash after the snapshot was replaced, but before the log was emptied
+		Files.write(dir.resolve("ntree.log"), log);
+
+		try (DurableNTree<Integer> tree = new DurableNTree<>(dir, 4,
+				KeyCodec.INTEGER, SyncPolicy.OS)) {
+			assertEquals(new ArrayList<>(set), tree.toList());
+		}
+	}
+}
@@ -103,7 +103,7 @@ public class NTreeTest {
 		for(int i=1; i<=1000; i++)
 			bigTree.insert(i);
 		
-		assertTrue("tree has 990 leaves", bigTree.countLeaves() == 990);
+		assertTrue("tree has 947 leaves", bigTree.countLeaves() == 947);
 	}
 
 	@Test
@@ -139,7 +139,7 @@ public class NTreeTest {
 		for(int i=1; i<=1000; i++)
 			bigTree.insert(i);
 		
-		assertTrue("tree has height 11", bigTree.height() == 11);
+		assertTrue("tree has height 4", bigTree.height() == 4);
 	}
 
 	@Test
@@ -178,6 +178,48 @@ public class NTreeTest {
 		assertTrue(tree1.max() == list2.get(0));
 	}
 	
+	@Test
+	public void testNavigation() {
+		assertEquals(Integer.valueOf(10), tree2.floor(15));
+		assertEquals(Integer.valueOf(20), tree2.floor(20));
+		assertNull(tree2.floor(5));
+		assertEquals(Integer.valueOf(20), tree2.ceiling(15));
+		assertEquals(Integer.valueOf(20), tree2.ceiling(20));
+		assertNull(tree2.ceiling(995));
+		assertEquals(Integer.valueOf(10), tree2.lower(20));
+		assertNull(tree2.lower(10));
+		assertEquals(Integer.valueOf(30), tree2.higher(20));
+		assertNull(tree2.higher(990));
+	}
+	
+	@Test
+	public void testRankSelect() {
+		for (int k = 0; k < list1.size(); k++) {
+			int elem = list1.get(k);
+			assertEquals(elem, (int) tree2.select(k));
+			assertEquals(k, tree2.rank(elem));
+			assertEquals(k + 1, tree2.rank(elem + 1));
+		}
+		assertEquals(0, tree2.rank(Integer.MIN_VALUE));
+		
+		// ranks follow the changes
+		tree2.delete(10);
+		tree2.insert(995);
+		assertEquals(20, (int) tree2.select(0));
+		assertEquals(995, (int) tree2.select(list1.size() - 1));
+		assertEquals(list1.size() - 1, tree2.rank(995));
+		
+		NTree<Integer> view = tree2.subTree(500, 600);
+		assertEquals(510, (int) view.select(1));
+		assertEquals(2, view.rank(520));
+		
+		try {
+			tree2.select(list1.size());
+			fail("ranks beyond the size must be rejected");
+		} catch (IndexOutOfBoundsException e) {
+		}
+	}
+	
 	@Test
 	public void testContains() {
 		for(int elem : list1)
@@ -221,6 +263,18 @@ public class NTreeTest {
 		assertTrue("size stays the same", tree2.size() == prevSize);
 	}
 	
+	@Test
+	public void testInsertAllBatch() {
+		ArrayNTree<Integer> tree = new ArrayNTree<>(defaultCapacity);
+		
+		assertTrue(tree.insertAll(list2));
+		assertEquals(tree1, tree);
+		assertFalse("nothing new", tree.insertAll(Arrays.asList(10, 20)));
+		assertTrue(tree.insertAll(Arrays.asList(5, 15)));
+		assertTrue("two more elements", tree.size() == list1.size() + 2);
+		assertTrue(assertInvariant(tree));
+	}
+	
 	// if the tree is well built, the iterator should return  
 	// an increasing sequence of elements
 	private boolean assertInvariant(ArrayNTree<Integer> tree) {
@@ -263,6 +317,15 @@ public class NTreeTest {
 		}
 	}
 
+	@Test
+	public void testBulkLoad() {
+		ArrayNTree<Integer> loaded = ArrayNTree.bulkLoad(list2, defaultCapacity, 1, false);
+		
+		assertEquals(tree1, loaded);
+		assertTrue("99 elements in a 5-ary tree have height 4", loaded.height() == 4);
+		assertTrue(assertInvariant(loaded));
+	}
+	
 	@Test
 	public void testDelete() {
 		int prevSize = tree1.size();
@@ -273,6 +336,15 @@ public class NTreeTest {
 		assertFalse("element is removed", tree1.contains(element));
 	}
 	
+	@Test
+	public void testCountersAfterDeletes() {
+		for(int i = 0; i < list2.size(); i += 2)
+			tree2.delete(list2.get(i));
+		
+		assertTrue("size matches elements", tree2.size() == tree2.toList().size());
+		assertTrue("size matches deletes", tree2.size() == list2.size() / 2);
+	}
+	
 	@Test
 	public void testDeleteNonExistingValues() {
 		int prevSize = tree1.size();
@@ -317,6 +389,30 @@ public class NTreeTest {
 		}
 	}
 	
+	@Test
+	public void testDeleteAllBatch() {
+		List<Integer> half = list2.subList(0, list2.size() / 2);
+		
+		assertTrue(tree1.deleteAll(half));
+		assertTrue(tree1.size() == list2.size() - half.size());
+		for(int elem : half)
+			assertFalse(tree1.contains(elem));
+		
+		assertTrue(tree2.deleteAll(Arrays.asList(10)));
+		assertFalse(tree2.deleteAll(Arrays.asList(10, -1)));
+	}
+	
+	@Test
+	public void testRetainAllBatch() {
+		List<Integer> half = list2.subList(0, list2.size() / 2);
+		
+		assertTrue(tree1.retainAll(half));
+		assertTrue(tree1.size() == half.size());
+		for(int elem : half)
+			assertTrue(tree1.contains(elem));
+		assertFalse(tree1.retainAll(list1));
+	}
+	
 	@Test
 	public void testEquals() {
 		assertEquals(tree1, tree1);
@@ -340,6 +436,17 @@ public class NTreeTest {
 		assertEquals(treeList1, treeList2);
 	}
 
+	@Test
+	public void testToArray() {
+		Integer[] array = tree2.toArray(new Integer[0]);
+		Collections.sort(list1);
+		
+		assertEquals(list1, Arrays.asList(array));
+		
+		Integer[] larger = tree2.toArray(new Integer[list1.size() + 1]);
+		assertNull(larger[list1.size()]);
+	}
+
 	@Test
 	public void testClone() {
 		ArrayNTree<Integer> clone1 = tree1.clone();
@@ -350,6 +457,15 @@ public class NTreeTest {
 		assertEquals(tree2,  clone1);
 		assertEquals(tree2,  clone2);
 		assertEquals(clone1, clone2);
+		
+		// the clone does not share nodes with the original
+		clone1.delete(10);
+		clone1.insert(5);
+		clone1.insert(985);
+		assertTrue(tree1.contains(10));
+		assertFalse(tree1.contains(5) || tree1.contains(985));
+		assertEquals(list1, tree1.toList());
+		assertTrue(assertInvariant(clone1));
 	}
 
 	@Test
@@ -363,6 +479,14 @@ public class NTreeTest {
 		assertTrue(!it1.hasNext() && !it2.hasNext());
 	}
 	
+	@Test(expected = ConcurrentModificationException.class)
+	public void testIteratorFailFast() {
+		Iterator<Integer> it = tree1.iterator();
+		it.next();
+		tree1.insert(-1);
+		it.next();
+	}
+	
 	@Test
 	public void testContainsEmpty() {
 		ArrayNTree<Integer> emptyTree = new ArrayNTree<>(defaultCapacity);
@@ -0,0 +1,185 @@
+package main.java.datatype;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.*;
+
+public class OffHeapNTreeTest {
+
+	private static final int REPEAT = 100;
+	private static final int OPERATIONS = 500;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSameAsArrayNTree() {
+		Random r = new Random(3);
+
+		for (int rep = 0; rep < REPEAT; rep++) {
+			int capacity = 1 + r.nextInt(10);
+			int range = 1 + r.nextInt(300);
+			ArrayNTree<Integer> tree = new ArrayNTree<>(capacity);
+
+			try (OffHeapNTree<Integer> offHeap = new OffHeapNTree<>(capacity,
+					KeyCodec.INTEGER)) {
+				for (int op = 0; op < OPERATIONS; op++) {
+					int elem = r.nextInt(range);
+					if (r.nextInt(3) > 0) {
+						tree.insert(elem);
+						offHeap.insert(elem);
+					} else {
+						tree.delete(elem);
+						offHeap.delete(elem);
+					}
+					assertEquals(tree.contains(elem), offHeap.contains(elem));
+
+					int other = r.nextInt(range + 2) - 1;
+					assertEquals(tree.floor(other), offHeap.floor(other));
+					assertEquals(tree.ceiling(other), offHeap.ceiling(other));
+					assertEquals(tree.lower(other), offHeap.lower(other));
+					assertEquals(tree.higher(other), offHeap.higher(other));
+				}
+
+				// same operations, same structure
+				assertEquals(tree.toString(), offHeap.toString());
+				assertEquals(tree.toList(), offHeap.toList());
+				assertEquals(tree.height(), offHeap.height());
+				assertEquals(tree.countLeaves(), offHeap.countLeaves());
+				assertEquals(tree.max(), offHeap.max());
+			}
+		}
+	}
+
+	@Test
+	public void testGrowAndBatches() {
+		try (OffHeapNTree<Long> tree = new OffHeapNTree<>(8, KeyCodec.LONG)) {
+			List<Long> elems = new ArrayList<>();
+			for (long i = 0; i < 10000; i++)
+				elems.add(i * 3);
+
+			assertTrue(tree.insertAll(elems));
+			assertTrue(tree.size() == elems.size());
+			assertTrue(tree.deleteAll(elems.subList(0, 5000)));
+			assertTrue(tree.retainAll(elems.subList(5000, 6000)));
+			assertEquals(elems.subList(5000, 6000), tree.toList());
+		}
+	}
+
+	@Test
+	public void testRangeIterator() {
+		Random r = new Random(4);
+		TreeSet<Integer> set = new TreeSet<>();
+
+		try (OffHeapNTree<Integer> tree = new OffHeapNTree<>(3,
+				KeyCodec.INTEGER)) {
+			for (int i = 0; i < 300; i++) {
+				int elem = r.nextInt(500);
+				set.add(elem);
+				tree.insert(elem);
+			}
+
+			for (int i = 0; i < 200; i++) {
+				int from = r.nextInt(520) - 10;
+				int to = from + r.nextInt(100);
+				boolean fromInclusive = r.nextBoolean();
+				boolean toInclusive = r.nextBoolean();
+
+				List<Integer> range = new ArrayList<>();
+				tree.rangeIterator(from, fromInclusive, to, toInclusive)
+						.forEachRemaining(range::add);
+				assertEquals(new ArrayList<>(
+						set.subSet(from, fromInclusive, to, toInclusive)), range);
+				assertEquals(range.size(), tree.countInRange(from,
+						fromInclusive, to, toInclusive));
+				assertEquals(set.headSet(from).size(), tree.rank(from));
+			}
+
+			int k = 0;
+			for (int elem : set)
+				assertEquals(elem, (int) tree.select(k++));
+		}
+	}
+
+	@Test
+	public void testSaveAndOpen() throws IOException {
+		List<Integer> elems = new ArrayList<>();
+		for (int i = 0; i < 4000; i++)
+			elems.add(i * 2);
+		Collections.shuffle(elems, new Random(5));
+		ArrayNTree<Integer> tree = new ArrayNTree<>(elems, 7);
+
+		Path file = folder.newFile().toPath();
+		OffHeapNTree.save(tree, file, 16, KeyCodec.INTEGER);
+
+		try (OffHeapNTree<Integer> mapped = OffHeapNTree.open(file,
+				KeyCodec.INTEGER)) {
+			assertEquals(tree.toList(), mapped.toList());
+			assertTrue(mapped.size() == 4000);
+			assertTrue("balanced, 16-ary", mapped.height() == 4);
+			assertTrue(mapped.contains(1000));
+			assertFalse(mapped.contains(1001));
+
+			List<Integer> range = new ArrayList<>();
+			mapped.rangeIterator(101, true, 109, true).forEachRemaining(range::add);
+			assertEquals(Arrays.asList(102, 104, 106, 108), range);
+
+			try {
+				mapped.insert(1);
+				fail("mapped trees are read-only");
+			} catch (UnsupportedOperationException e) {
+			}
+		}
+	}
+
+	@Test
+	public void testSaveEmpty() throws IOException {
+		Path file = folder.newFile().toPath();
+		OffHeapNTree.save(new ArrayNTree<Long>(4), file, 4, KeyCodec.LONG);
+
+		try (OffHeapNTree<Long> mapped = OffHeapNTree.open(file, KeyCodec.LONG)) {
+			assertTrue(mapped.isEmpty());
+			assertFalse(mapped.iterator().hasNext());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testOpenWithOtherCodec() throws IOException {
+		Path file = folder.newFile().toPath();
+		OffHeapNTree.save(new ArrayNTree<Integer>(4), file, 4, KeyCodec.INTEGER);
+		OffHeapNTree.open(file, KeyCodec.LONG);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testClosed() {
+		OffHeapNTree<Integer> tree = new OffHeapNTree<>(4, KeyCodec.INTEGER);
+		tree.insert(1);
+		tree.close();
+		tree.contains(1);
+	}
+
+	@Test
+	public void testFreeBuffers() {
+		boolean jdk9 = !System.getProperty("java.specification.version")
+				.startsWith("1.");
+		ByteBuffer direct = ByteBuffer.allocateDirect(64);
+		assertFalse("slices own no memory",
+				BufferCleaner.free(((ByteBuffer) direct.position(8)).slice()));
+		assertEquals(jdk9, BufferCleaner.free(direct));
+		assertFalse(BufferCleaner.free(ByteBuffer.allocate(64)));
+
+		// the tree grows its first chunk many times, freeing the old ones
+		OffHeapNTree<Integer> tree = new OffHeapNTree<>(4, KeyCodec.INTEGER);
+		for (int i = 0; i < 20000; i++)
+			tree.insert(i);
+		assertEquals(20000, tree.size());
+		tree.close();
+		tree.close();
+	}
+}
@@ -0,0 +1,160 @@
+package main.java.datatype;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.util.*;
+
+public class PersistentNTreeTest {
+
+	private static final int REPEAT = 100;
+	private static final int OPERATIONS = 500;
+
+	@Test
+	public void testSameAsArrayNTree() {
+		Random r = new Random(5);
+
+		for (int rep = 0; rep < REPEAT; rep++) {
+			int capacity = 1 + r.nextInt(10);
+			int range = 1 + r.nextInt(300);
+			ArrayNTree<Integer> tree = new ArrayNTree<>(capacity);
+			PersistentNTree<Integer> version = new PersistentNTree<>(capacity);
+
+			for (int op = 0; op < OPERATIONS; op++) {
+				int elem = r.nextInt(range);
+				if (r.nextInt(3) > 0) {
+					tree.insert(elem);
+					version = version.with(elem);
+				} else {
+					tree.delete(elem);
+					version = version.without(elem);
+				}
+			}
+
+			// same operations, same structure
+			assertEquals(tree.info(), version.toString() + ", size: "
+					+ version.size() + ", height: " + version.height()
+					+ ", nLeaves: " + version.countLeaves());
+			assertEquals(tree.toList(), version.toList());
+			for (int k = 0; k < tree.size(); k++)
+				assertEquals(tree.select(k), version.select(k));
+			int elem = r.nextInt(range);
+			assertEquals(tree.rank(elem), version.rank(elem));
+			assertEquals(tree.floor(elem), version.floor(elem));
+			assertEquals(tree.higher(elem), version.higher(elem));
+			assertEquals(tree.countInRange(elem, true, elem + 50, false),
+					version.countInRange(elem, true, elem + 50, false));
+			assertEquals(tree.min(), version.min());
+			assertEquals(tree.max(), version.max());
+		}
+
+		// the same NTree contract on empty trees and views
+		PersistentNTree<Integer> empty = new PersistentNTree<>(3);
+		assertNull(empty.min());
+		assertNull(empty.max());
+		assertNull(new ArrayNTree<Integer>(3).max());
+		assertNull(empty.with(5).subTree(6, 9).min());
+		assertNull(empty.with(5).subTree(6, 9).max());
+	}
+
+	@Test
+	public void testOldVersionsUnchanged() {
+		Random r = new Random(6);
+		List<PersistentNTree<Integer>> versions = new ArrayList<>();
+		List<TreeSet<Integer>> expected = new ArrayList<>();
+		PersistentNTree<Integer> version = new PersistentNTree<>(4);
+		TreeSet<Integer> set = new TreeSet<>();
+
+		for (int op = 0; op < 1000; op++) {
+			int elem = r.nextInt(200);
+			if (r.nextInt(3) > 0) {
+				version = version.with(elem);
+				set.add(elem);
+			} else {
+				version = version.without(elem);
+				set.remove(elem);
+			}
+			versions.add(version);
+			expected.add(new TreeSet<>(set));
+		}
+
+		for (int i = 0; i < versions.size(); i++)
+			assertEquals(new ArrayList<>(expected.get(i)), versions.get(i)
+					.toList());
+	}
+
+	@Test
+	public void testNoChangeSameVersion() {
+		PersistentNTree<Integer> tree = PersistentNTree.bulkLoad(
+				Arrays.asList(30, 10, 20, 10), 2);
+		assertEquals("[10:[20][30]]", tree.toString());
+
+		assertSame(tree, tree.with(20));
+		assertSame(tree, tree.without(25));
+		assertSame(tree, tree.retaining(Arrays.asList(10, 20, 30, 40)));
+		assertEquals(Arrays.asList(10, 30), tree.retaining(
+				Arrays.asList(10, 30)).toList());
+
+		try {
+			tree.insert(40);
+			fail("immutable trees cannot change");
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+
+	@Test
+	public void testAtomicNTree() throws InterruptedException {
+		final int threads = 4;
+		final int perThread = 2000;
+		AtomicNTree<Integer> tree = new AtomicNTree<>(8);
+		List<Thread> writers = new ArrayList<>();
+		List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+
+		for (int t = 0; t < threads; t++) {
+			final int first = t;
+			writers.add(new Thread(() -> {
+				for (int i = 0; i < perThread; i++) {
+					tree.insert(first + threads * i);
+					if (i % 3 == 0)
+						tree.delete(first + threads * (i / 2));
+				}
+			}));
+		}
+
+		// readers see whole versions only
+		Thread reader = new Thread(() -> {
+			try {
+				for (int i = 0; i < 200; i++) {
+					PersistentNTree<Integer> snapshot = tree.snapshot();
+					List<Integer> elems = snapshot.toList();
+					assertEquals(snapshot.size(), elems.size());
+					for (int j = 1; j < elems.size(); j++)
+						assertTrue(elems.get(j - 1) < elems.get(j));
+				}
+			} catch (Throwable e) {
+				errors.add(e);
+			}
+		});
+
+		for (Thread writer : writers)
+			writer.start();
+		reader.start();
+		for (Thread writer : writers)
+			writer.join();
+		reader.join();
+		assertEquals(Collections.emptyList(), errors);
+
+		TreeSet<Integer> expected = new TreeSet<>();
+		for (int t = 0; t < threads; t++) {
+			TreeSet<Integer> own = new TreeSet<>();
+			for (int i = 0; i < perThread; i++) {
+				own.add(t + threads * i);
+				if (i % 3 == 0)
+					own.remove(t + threads * (i / 2));
+			}
+			expected.addAll(own);
+		}
+		assertEquals(new ArrayList<>(expected), tree.toList());
+	}
+}
@@ -0,0 +1,168 @@
+package main.java.datatype;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import java.util.*;
+
+public class PrimitiveArrayNTreeTest {
+
+	private static final int REPEAT = 200;
+	private static final int OPERATIONS = 500;
+
+	@Test
+	public void testIntSameAsArrayNTree() {
+		Random r = new Random(1);
+
+		for (int rep = 0; rep < REPEAT; rep++) {
+			int capacity = 1 + r.nextInt(10);
+			int range = 1 + r.nextInt(300);
+			ArrayNTree<Integer> tree = new ArrayNTree<>(capacity);
+			IntArrayNTree intTree = new IntArrayNTree(capacity);
+
+			for (int op = 0; op < OPERATIONS; op++) {
+				int elem = r.nextInt(range);
+				if (r.nextInt(3) > 0) {
+					tree.insert(elem);
+					intTree.insert(elem);
+				} else {
+					tree.delete(elem);
+					intTree.delete(elem);
+				}
+				assertEquals(tree.contains(elem), intTree.contains(elem));
+			}
+
+			// same operations, same structure
+			assertEquals(tree.toString(), intTree.toString());
+			assertEquals(tree.size(), intTree.size());
+			assertEquals(tree.height(), intTree.height());
+			assertEquals(tree.countLeaves(), intTree.countLeaves());
+			if (!tree.isEmpty()) {
+				assertEquals(tree.min().intValue(), intTree.min());
+				assertEquals(tree.max().intValue(), intTree.max());
+			}
+
+			int i = 0;
+			int[] array = intTree.toArray();
+			for (int elem : tree)
+				assertEquals(elem, array[i++]);
+		}
+	}
+
+	@Test
+	public void testLongSameAsTreeSet() {
+		Random r = new Random(2);
+
+		for (int rep = 0; rep < REPEAT; rep++) {
+			int capacity = 1 + r.nextInt(10);
+			TreeSet<Long> set = new TreeSet<>();
+			LongArrayNTree longTree = new LongArrayNTree(capacity);
+
+			for (int op = 0; op < OPERATIONS; op++) {
+				long elem = (long) r.nextInt(200) << 33;
+				if (r.nextInt(3) > 0) {
+					set.add(elem);
+					longTree.insert(elem);
+				} else {
+					set.remove(elem);
+					longTree.delete(elem);
+				}
+			}
+
+			assertEquals(set.size(), longTree.size());
+			List<Long> elems = new ArrayList<>();
+			for (long elem : longTree)
+				elems.add(elem);
+			assertEquals(new ArrayList<>(set), elems);
+		}
+	}
+
+	@Test
+	public void testKeySearch() {
+		// the vector profile compiles VectorKeySearch and adds the Vector API
+		// to the test JVM, so it must be the search in use there
+		boolean vectorApi;
+		try {
+			Class.forName("jdk.incubator.vector.IntVector");
+			vectorApi = true;
+		} catch (ClassNotFoundException e) {
+			vectorApi = false;
+		}
+		assertEquals(vectorApi ? "VectorKeySearch" : "KeySearch",
+				KeySearch.INSTANCE.getClass().getSimpleName());
+
+		Random r = new Random(3);
+		KeySearch scalar = new KeySearch();
+
+		for (int rep = 0; rep < REPEAT; rep++) {
+			int n = r.nextInt(300);
+			int from = r.nextInt(10);
+			int[] ints = new int[from + n];
+			long[] longs = new long[from + n];
+			for (int i = from; i < from + n; i++) {
+				ints[i] = i == from ? r.nextInt(10) - 5 : ints[i - 1] + 1 + r.nextInt(3);
+				longs[i] = (long) ints[i] << 33;
+			}
+
+			for (int key = -10; key < 3 * n + 10; key++) {
+				assertEquals(scalar.lastNotGreater(ints, from, n, key),
+						KeySearch.INSTANCE.lastNotGreater(ints, from, n, key));
+				assertEquals(scalar.lastNotGreater(longs, from, n, (long) key << 33),
+						KeySearch.INSTANCE.lastNotGreater(longs, from, n, (long) key << 33));
+			}
+		}
+	}
+
+	@Test
+	public void testWideNodes() {
+		Random r = new Random(4);
+
+		for (int capacity : new int[] { 64, 256 }) {
+			TreeSet<Integer> set = new TreeSet<>();
+			IntArrayNTree tree = new IntArrayNTree(capacity);
+			LongArrayNTree longTree = new LongArrayNTree(capacity);
+
+			for (int op = 0; op < 20 * OPERATIONS; op++) {
+				int elem = r.nextInt(5000);
+				if (r.nextInt(3) > 0) {
+					set.add(elem);
+					tree.insert(elem);
+					longTree.insert(elem);
+				} else {
+					set.remove(elem);
+					tree.delete(elem);
+					longTree.delete(elem);
+				}
+				assertEquals(set.contains(elem), tree.contains(elem));
+				assertEquals(set.contains(elem), longTree.contains(elem));
+			}
+
+			assertEquals(set.size(), tree.size());
+			int i = 0;
+			int[] array = tree.toArray();
+			for (int elem : set)
+				assertEquals(elem, array[i++]);
+		}
+	}
+
+	@Test
+	public void testBulkLoad() {
+		int[] elems = { 50, 10, 40, 20, 30, 10 };
+		IntArrayNTree tree = IntArrayNTree.bulkLoad(elems, 2, 1, true);
+
+		assertEquals("[10:[20:[30]][40:[50]]]", tree.toString());
+		assertArrayEquals(new int[] { 10, 20, 30, 40, 50 }, tree.toArray());
+
+		try {
+			LongArrayNTree.bulkLoad(new long[] { 1, 1 }, 2, 1, false);
+			fail("repeated elements must be rejected");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void testMinEmpty() {
+		new IntArrayNTree(4).min();
+	}
+}
@@ -0,0 +1,51 @@
+package main.java.datatype;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * KeySearch with the Vector API. The keys are sorted, so the ones not
+ * greater than the searched key are a prefix: the keys are compared a
+ * vector at a time, and the search stops at the first vector with a
+ * greater key, counting the lanes before it. Runs shorter than a vector
+ * are searched by the binary search.
+ *
+ * Loaded by KeySearch, never referenced directly, so the rest of the
+ * library still runs on JVMs without the Vector API.
+ */
+final class VectorKeySearch extends KeySearch {
+
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+	@Override
+	int lastNotGreater(int[] keys, int from, int n, int key) {
+		int lanes = INTS.length();
+		int i = 0;
+		for (int bound = INTS.loopBound(n); i < bound; i += lanes) {
+			VectorMask<Integer> notGreater = IntVector
+					.fromArray(INTS, keys, from + i)
+					.compare(VectorOperators.LE, key);
+			if (!notGreater.allTrue())
+				return i + notGreater.trueCount() - 1;
+		}
+		return i + super.lastNotGreater(keys, from + i, n - i, key);
+	}
+
+	@Override
+	int lastNotGreater(long[] keys, int from, int n, long key) {
+		int lanes = LONGS.length();
+		int i = 0;
+		for (int bound = LONGS.loopBound(n); i < bound; i += lanes) {
+			VectorMask<Long> notGreater = LongVector
+					.fromArray(LONGS, keys, from + i)
+					.compare(VectorOperators.LE, key);
+			if (!notGreater.allTrue())
+				return i + notGreater.trueCount() - 1;
+		}
+		return i + super.lastNotGreater(keys, from + i, n - i, key);
+	}
+}